@@ -0,0 +1,202 @@
+package net.roguelogix.quartz.internal;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.roguelogix.quartz.internal.util.BuddyAllocator;
+import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.RangeAllocator;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.ref.Cleaner;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic matrix records, SlabPool against one allocation per record (what DynamicMatrixManager did before)
+ * the buffers are modeled without GL, as a lockstep MultiBuffer over buddy allocated buffers, one per frame in flight
+ * each buffer allocation tracks itself and registers a cleaner, same as GL46Buffer
+ * <p>
+ * write is the per frame matrix upload, both go through the active frame's cached allocation address, like MultiBuffer.Allocation.activeAllocation().address()
+ * slab looks its chunk up by handle first, same as SlabPool's MultiBuffer storage
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SlabPoolBenchmark {
+    
+    private static final int FRAMES = 3;
+    private static final int STRIDE = MagicNumbers.MATRIX_4F_BYTE_SIZE_2;
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final Runnable NOOP = () -> {
+    };
+    
+    @Param({"10000", "100000"})
+    public int records;
+    
+    @Param({"slab", "general"})
+    public String path;
+    
+    private LockstepBuffer buffer;
+    private SlabPool pool;
+    private Object[] live;
+    private Random random;
+    private final Matrix4f matrix = new Matrix4f().rotateXYZ(1, 2, 3);
+    
+    @Setup(Level.Iteration)
+    public void setup() {
+        random = new Random(records);
+        buffer = new LockstepBuffer(Integer.highestOneBit(records * STRIDE) * 4);
+        pool = new SlabPool(buffer, STRIDE);
+        live = new Object[records];
+        for (int i = 0; i < records; i++) {
+            live[i] = alloc();
+        }
+    }
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        buffer.memory.free();
+    }
+    
+    private Object alloc() {
+        if (path.equals("slab")) {
+            return pool.alloc();
+        }
+        return buffer.allocation(buffer.alloc(STRIDE, STRIDE));
+    }
+    
+    private void free(Object record) {
+        if (record instanceof SlabPool.Slot slot) {
+            slot.free();
+        } else {
+            buffer.free(((LockstepAllocation) record).handle);
+        }
+    }
+    
+    /**
+     * Frees and re-allocates a random 1% of the records, matrices come and go as entities do
+     */
+    @Benchmark
+    public void churn(Blackhole blackhole) {
+        for (int i = 0; i < records / 100; i++) {
+            final int index = random.nextInt(records);
+            free(live[index]);
+            live[index] = alloc();
+        }
+        blackhole.consume(live);
+    }
+    
+    @Benchmark
+    public void write() {
+        if (path.equals("slab")) {
+            for (final Object record : live) {
+                final var slot = (SlabPool.Slot) record;
+                final var chunk = slot.chunkAddress();
+                final int offset = slot.chunkOffset();
+                chunk.putMatrix4f(offset, matrix);
+                chunk.putMatrix4f(offset + MagicNumbers.MATRIX_4F_BYTE_SIZE, matrix);
+            }
+        } else {
+            for (final Object record : live) {
+                final var pointer = ((LockstepAllocation) record).activeAddress();
+                pointer.putMatrix4fIdx(0, matrix);
+                pointer.putMatrix4fIdx(1, matrix);
+            }
+        }
+    }
+    
+    /**
+     * MultiBuffer.Allocation, one block per frame, all at the same offset
+     * only the first frame has memory behind it, the other frames' addresses point at it too, nothing reads them
+     */
+    private static class LockstepAllocation {
+        private final int handle;
+        private final int block;
+        private final PointerWrapper[] frameAddresses = new PointerWrapper[FRAMES];
+        
+        private LockstepAllocation(int handle, int block) {
+            this.handle = handle;
+            this.block = block;
+        }
+        
+        private PointerWrapper activeAddress() {
+            return frameAddresses[LockstepBuffer.ACTIVE_FRAME];
+        }
+    }
+    
+    /**
+     * Handles index a list of allocations, like SlabPool's MultiBuffer storage
+     */
+    private static class LockstepBuffer implements SlabPool.ChunkStorage {
+        
+        private static final int ACTIVE_FRAME = 0;
+        
+        private final RangeAllocator[] allocators = new RangeAllocator[FRAMES];
+        private final ObjectArrayList<LockstepAllocation> allocations = new ObjectArrayList<>();
+        private final IntArrayList freeHandles = new IntArrayList();
+        private final PointerWrapper memory;
+        
+        private LockstepBuffer(int capacity) {
+            for (int i = 0; i < FRAMES; i++) {
+                allocators[i] = new BuddyAllocator(capacity);
+            }
+            memory = PointerWrapper.alloc(capacity);
+        }
+        
+        @Override
+        public int alloc(int size, int alignment) {
+            int block = RangeAllocator.NULL_BLOCK;
+            for (int i = 0; i < FRAMES; i++) {
+                block = allocators[i].alloc(size, alignment);
+                if (block == RangeAllocator.NULL_BLOCK) {
+                    throw new IllegalStateException("Benchmark buffer too small");
+                }
+            }
+            final int handle = freeHandles.isEmpty() ? allocations.size() : freeHandles.popInt();
+            final var allocation = new LockstepAllocation(handle, block);
+            final var address = memory.slice(allocators[0].offset(block), size);
+            for (int i = 0; i < FRAMES; i++) {
+                allocation.frameAddresses[i] = address;
+                // each frame's allocation object
+                CLEANER.register(new Object(), NOOP);
+            }
+            // lockstep allocation object
+            CLEANER.register(allocation, NOOP);
+            if (handle == allocations.size()) {
+                allocations.add(allocation);
+            } else {
+                allocations.set(handle, allocation);
+            }
+            return handle;
+        }
+        
+        private LockstepAllocation allocation(int chunk) {
+            return allocations.get(chunk);
+        }
+        
+        @Override
+        public int offset(int chunk) {
+            return allocators[0].offset(allocations.get(chunk).block);
+        }
+        
+        @Override
+        public PointerWrapper address(int chunk) {
+            return allocations.get(chunk).activeAddress();
+        }
+        
+        @Override
+        public void free(int chunk) {
+            final var allocation = allocations.get(chunk);
+            for (int i = 0; i < FRAMES; i++) {
+                allocators[i].free(allocation.block);
+            }
+            allocations.set(chunk, null);
+            freeHandles.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package net.roguelogix.quartz.internal.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffer allocation bookkeeping, the old sorted list + indexOf scheme against TLSF + block handle map
+ * GL46Buffer/GL33Buffer do the same bookkeeping around a GL buffer, this is just the bookkeeping
+ * <p>
+ * teardown frees every allocation in a random order, like a batch being dropped
+ * churn frees one random allocation and makes another, with the live count held steady
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class BufferBookkeepingBenchmark {
+    
+    @Param({"10000", "100000"})
+    public int allocations;
+    
+    @Param({"list", "tlsf"})
+    public String bookkeeping;
+    
+    private Bookkeeping buffer;
+    private Object[] live;
+    private Random random;
+    
+    @Setup(Level.Invocation)
+    public void setup() {
+        random = new Random(allocations);
+        buffer = bookkeeping.equals("list") ? new ListBookkeeping() : new TLSFBookkeeping();
+        live = new Object[allocations];
+        for (int i = 0; i < allocations; i++) {
+            live[i] = buffer.alloc(randomSize(), 16);
+        }
+        // free order doesn't match alloc order
+        for (int i = live.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final var temp = live[i];
+            live[i] = live[j];
+            live[j] = temp;
+        }
+    }
+    
+    private int randomSize() {
+        return 64 + random.nextInt(1024);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void teardown() {
+        for (final Object allocation : live) {
+            buffer.free(allocation);
+        }
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void churn(Blackhole blackhole) {
+        // same amount of work as a teardown + rebuild, but interleaved, so the free list stays fragmented
+        for (int i = 0; i < allocations; i++) {
+            final int index = random.nextInt(live.length);
+            buffer.free(live[index]);
+            live[index] = buffer.alloc(randomSize(), 16);
+        }
+        blackhole.consume(live);
+    }
+    
+    private interface Bookkeeping {
+        Object alloc(int size, int alignment);
+        
+        void free(Object allocation);
+    }
+    
+    /**
+     * What the buffers use now
+     */
+    private static class TLSFBookkeeping implements Bookkeeping {
+        
+        private record Info(int block, int offset, int size) {
+        }
+        
+        private final RangeAllocator rangeAllocator = new TLSFAllocator(32768);
+        private final Int2ObjectOpenHashMap<Info> liveAllocations = new Int2ObjectOpenHashMap<>();
+        
+        @Override
+        public Object alloc(int size, int alignment) {
+            int block = rangeAllocator.alloc(size, alignment);
+            if (block == RangeAllocator.NULL_BLOCK) {
+                final int required = rangeAllocator.requiredCapacity(size, alignment);
+                rangeAllocator.grow(Integer.highestOneBit(required - 1) << 1);
+                block = rangeAllocator.alloc(size, alignment);
+            }
+            final var info = new Info(block, rangeAllocator.offset(block), size);
+            liveAllocations.put(block, info);
+            return info;
+        }
+        
+        @Override
+        public void free(Object allocation) {
+            final var info = (Info) allocation;
+            if (liveAllocations.get(info.block) != info) {
+                return;
+            }
+            liveAllocations.remove(info.block);
+            rangeAllocator.free(info.block);
+        }
+    }
+    
+    /**
+     * The old GL46Buffer bookkeeping, minus the GL calls
+     */
+    private static class ListBookkeeping implements Bookkeeping {
+        
+        private record Info(int offset, int size) implements Comparable<Info> {
+            @Override
+            public int compareTo(Info info) {
+                return Integer.compare(offset, info.offset);
+            }
+        }
+        
+        private int size = 32768;
+        private final ObjectArrayList<Info> liveAllocations = new ObjectArrayList<>();
+        private final ObjectArrayList<Info> freeAllocations = new ObjectArrayList<>() {
+            @Override
+            public boolean add(@Nullable Info allocation) {
+                if (allocation == null) {
+                    return false;
+                }
+                int index = Collections.binarySearch(this, allocation);
+                if (index < 0) {
+                    index = ~index;
+                    super.add(index, allocation);
+                } else {
+                    super.set(index, allocation);
+                }
+                return true;
+            }
+        };
+        
+        private ListBookkeeping() {
+            freeAllocations.add(new Info(0, size));
+        }
+        
+        @Override
+        public Object alloc(int size, int alignment) {
+            for (int i = 0; i < freeAllocations.size(); i++) {
+                final var attemptedAlloc = attemptAllocInSpace(freeAllocations.get(i), size, alignment);
+                if (attemptedAlloc != null) {
+                    freeAllocations.remove(i);
+                    return attemptedAlloc;
+                }
+            }
+            
+            int endOffset = this.size;
+            int minSize = this.size + size;
+            if (!freeAllocations.isEmpty()) {
+                var endAlloc = freeAllocations.get(freeAllocations.size() - 1);
+                if (endAlloc.offset + endAlloc.size == this.size) {
+                    minSize -= endAlloc.size;
+                    endOffset = endAlloc.offset;
+                }
+            }
+            final int nextValidAlignment = (endOffset + (alignment - 1)) & (-alignment);
+            minSize += nextValidAlignment - endOffset;
+            
+            expand(minSize);
+            
+            final var attemptedAlloc = attemptAllocInSpace(freeAllocations.pop(), size, alignment);
+            if (attemptedAlloc == null) {
+                throw new IllegalStateException("Alloc failed even after expanding buffer");
+            }
+            return attemptedAlloc;
+        }
+        
+        @Nullable
+        private Info attemptAllocInSpace(Info freeAlloc, int size, int alignment) {
+            final int nextValidAlignment = (freeAlloc.offset + (alignment - 1)) & (-alignment);
+            final int alignmentWaste = nextValidAlignment - freeAlloc.offset;
+            if (freeAlloc.size - alignmentWaste < size) {
+                return null;
+            }
+            if (alignmentWaste > 0) {
+                final var waste = new Info(freeAlloc.offset, alignmentWaste);
+                freeAllocations.add(waste);
+                freeAlloc = new Info(freeAlloc.offset + alignmentWaste, freeAlloc.size - alignmentWaste);
+                
+                int index = freeAllocations.indexOf(waste);
+                collapseFreeAllocationWithNext(index - 1);
+                collapseFreeAllocationWithNext(index);
+            }
+            if (freeAlloc.size > size) {
+                final var tail = new Info(freeAlloc.offset + size, freeAlloc.size - size);
+                freeAlloc = new Info(freeAlloc.offset, size);
+                freeAllocations.add(tail);
+                int index = freeAllocations.indexOf(tail);
+                collapseFreeAllocationWithNext(index - 1);
+                collapseFreeAllocationWithNext(index);
+            }
+            
+            liveAllocations.add(freeAlloc);
+            return freeAlloc;
+        }
+        
+        @Override
+        public void free(Object allocation) {
+            final var info = (Info) allocation;
+            var index = liveAllocations.indexOf(info);
+            if (index == -1) {
+                return;
+            }
+            var removed = liveAllocations.pop();
+            if (index != liveAllocations.size()) {
+                liveAllocations.set(index, removed);
+            }
+            freeAllocations.add(info);
+            index = freeAllocations.indexOf(info);
+            collapseFreeAllocationWithNext(index - 1);
+            collapseFreeAllocationWithNext(index);
+        }
+        
+        private void expand(int minSize) {
+            if (size >= minSize) {
+                return;
+            }
+            final int oldSize = size;
+            int newSize = Integer.highestOneBit(minSize);
+            if (newSize < minSize) {
+                newSize <<= 1;
+            }
+            size = newSize;
+            freeAllocations.add(new Info(oldSize, newSize - oldSize));
+            collapseFreeAllocationWithNext(freeAllocations.size() - 2);
+        }
+        
+        private void collapseFreeAllocationWithNext(int freeAllocationIndex) {
+            if (freeAllocationIndex < 0 || freeAllocationIndex >= freeAllocations.size() - 1) {
+                return;
+            }
+            var allocA = freeAllocations.get(freeAllocationIndex);
+            var allocB = freeAllocations.get(freeAllocationIndex + 1);
+            if (allocA.offset + allocA.size == allocB.offset) {
+                freeAllocations.remove(freeAllocationIndex + 1);
+                freeAllocations.remove(freeAllocationIndex);
+                freeAllocations.add(new Info(allocA.offset, allocA.size + allocB.size));
+            }
+        }
+    }
+}
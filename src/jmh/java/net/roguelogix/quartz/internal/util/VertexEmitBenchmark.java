@@ -0,0 +1,98 @@
+package net.roguelogix.quartz.internal.util;
+
+import net.roguelogix.quartz.internal.MagicNumbers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertex emit throughput, InternalMesh.Builder's vertex layout written the old way (slice per vertex, checked puts)
+ * and through a PointerWriter made per vertex (one check per vertex)
+ * normals are packed up front, so only the writes are measured
+ * an op is a whole mesh of vertexCount vertices
+ * <p>
+ * with debug checks off the JIT scalar replaces both the slices and the writers, the writer should be no slower than the slices
+ * keeping a shared writer around and restarting it per vertex was 20-30% slower than slicing, its fields got reloaded after every store
+ * run it both ways, add -jvmArgsAppend -Dquartz.debug=true for debug
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VertexEmitBenchmark {
+    
+    private static final int VERTEX_BYTE_SIZE = MagicNumbers.VERTEX_BYTE_SIZE;
+    
+    @Param({"1024", "65536"})
+    public int vertexCount;
+    
+    private float[] positions;
+    private float[] texCoords;
+    private int[] colors;
+    private short[] normals;
+    private PointerWrapper vertices;
+    
+    @Setup
+    public void setup() {
+        final var random = new Random(vertexCount);
+        positions = new float[vertexCount * 3];
+        texCoords = new float[vertexCount * 2];
+        colors = new int[vertexCount];
+        normals = new short[vertexCount * 3];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextFloat() * 16;
+            normals[i] = (short) random.nextInt();
+        }
+        for (int i = 0; i < texCoords.length; i++) {
+            texCoords[i] = random.nextFloat();
+        }
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt();
+        }
+        vertices = PointerWrapper.alloc((long) vertexCount * VERTEX_BYTE_SIZE);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        vertices.free();
+    }
+    
+    @Benchmark
+    public int slicePerVertex() {
+        for (int i = 0; i < vertexCount; i++) {
+            final var vertex = vertices.slice((long) i * VERTEX_BYTE_SIZE, VERTEX_BYTE_SIZE);
+            vertex.putFloatIdx(0, positions[i * 3]);
+            vertex.putFloatIdx(1, positions[i * 3 + 1]);
+            vertex.putFloatIdx(2, positions[i * 3 + 2]);
+            vertex.putIntIdx(3, colors[i]);
+            vertex.putFloatIdx(4, texCoords[i * 2]);
+            vertex.putFloatIdx(5, texCoords[i * 2 + 1]);
+            vertex.putShortIdx(12, normals[i * 3]);
+            vertex.putShortIdx(13, normals[i * 3 + 1]);
+            vertex.putShortIdx(14, normals[i * 3 + 2]);
+            vertex.putShortIdx(15, (short) 0);
+        }
+        return vertexCount;
+    }
+    
+    @Benchmark
+    public int writer() {
+        for (int i = 0; i < vertexCount; i++) {
+            final var vertex = PointerWriter.of(vertices, (long) i * VERTEX_BYTE_SIZE, VERTEX_BYTE_SIZE);
+            vertex.putFloatIdx(0, positions[i * 3]);
+            vertex.putFloatIdx(1, positions[i * 3 + 1]);
+            vertex.putFloatIdx(2, positions[i * 3 + 2]);
+            vertex.putIntIdx(3, colors[i]);
+            vertex.putFloatIdx(4, texCoords[i * 2]);
+            vertex.putFloatIdx(5, texCoords[i * 2 + 1]);
+            vertex.putShortIdx(12, normals[i * 3]);
+            vertex.putShortIdx(13, normals[i * 3 + 1]);
+            vertex.putShortIdx(14, normals[i * 3 + 2]);
+            vertex.putShortIdx(15, (short) 0);
+        }
+        return vertexCount;
+    }
+}
@@ -31,8 +31,10 @@ public final class Quartz {
     
     public static IEventBus EVENT_BUS = BusBuilder.builder().allowPerPhasePost().build();
     
+    // same blockstate/model gets the same mesh back, so it only exists once on the GPU, and instances of it batch together
     public static Mesh createStaticMesh(BlockState blockState) {
-        return createStaticMesh(builder -> {
+        // vanilla model rendering, safe to run off thread
+        return QuartzCore.INSTANCE.meshManager.internMesh(blockState, builder -> {
             final var minecraft = Minecraft.getInstance();
             final var blockColors = minecraft.getBlockColors();
             final var renderer = minecraft.getBlockRenderer();
@@ -51,12 +53,12 @@ public final class Quartz {
             for (final var rt : renderTypes) {
                 modelRenderer.renderModel(topOfStack, bufferSource.getBuffer(rt), blockState, blockModel, r, g, b, 0, 0, ModelData.EMPTY, rt);
             }
-        });
+        }, true);
     }
     
     public static Mesh createStaticMesh(ResourceLocation modelLocation) {
         QuartzCore.registerModel(modelLocation);
-        return createStaticMesh(builder -> {
+        return QuartzCore.INSTANCE.meshManager.internMesh(modelLocation, builder -> {
             final var minecraft = Minecraft.getInstance();
             final var renderer = minecraft.getBlockRenderer();
             final var modelRenderer = renderer.getModelRenderer();
@@ -71,11 +73,19 @@ public final class Quartz {
             for (final var rt : renderTypes) {
                 modelRenderer.renderModel(topOfStack, bufferSource.getBuffer(rt), null, model, 1, 1, 1, 0, 0, ModelData.EMPTY, rt);
             }
-        });
+        }, true);
     }
     
     public static Mesh createStaticMesh(Consumer<Mesh.Builder> buildFunc) {
-        return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc);
+        return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc, false);
+    }
+    
+    /**
+     * @param threadSafeBuild: buildFunc may be run on a worker thread during resource reload
+     *                         only pass true if it touches nothing that needs the render thread (no GL, no level access)
+     */
+    public static Mesh createStaticMesh(Consumer<Mesh.Builder> buildFunc, boolean threadSafeBuild) {
+        return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc, threadSafeBuild);
     }
     
     public static DrawBatch getDrawBatchForBlock(BlockPos blockPos) {
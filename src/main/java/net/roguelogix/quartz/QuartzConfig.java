@@ -78,11 +78,35 @@ public class QuartzConfig {
     @ConfigValue(comment = "Backend mode used by quartz\nAutomatic will try to use the best available, and fallback as necessary")
     public final Mode mode;
     
+    @ConfigValue(comment = "Run Quartz's own mesh build functions, and ones mods opted in, on worker threads during resource reload\nOther mods' build functions always run on the render thread\nDisable if meshes break after a reload", advanced = ConfigValue.BoolOption.True)
+    public final boolean parallelMeshBuild;
+    
+    @ConfigValue(comment = "Store mesh vertices in 16 bytes instead of 32, positions, UVs, and normals are quantized\nHalves mesh memory and feedback bandwidth, requires a restart", advanced = ConfigValue.BoolOption.True)
+    public final boolean compactVertices;
+    
     {
         mode = Mode.Automatic;
         debug = false;
+        parallelMeshBuild = true;
+        compactVertices = false;
     }
     
+    public static class BufferTrimOptions {
+        
+        @ConfigValue(comment = "Buffers are shrunk once their live data stays under this fraction of their size", range = "(0,1)")
+        public final double trimFraction;
+        @ConfigValue(comment = "Number of consecutive frames a buffer has to stay under the trim fraction before it's shrunk", range = "[1,)")
+        public final int trimFrames;
+        
+        {
+            trimFraction = 0.25;
+            trimFrames = 300;
+        }
+    }
+    
+    @ConfigValue(advanced = ConfigValue.BoolOption.True)
+    public final BufferTrimOptions bufferTrim = new BufferTrimOptions();
+    
     @ConfigValue(advanced = ConfigValue.BoolOption.True)
     public final VKConfig VK = VKConfig.INSTANCE;
     
@@ -1,7 +1,11 @@
 package net.roguelogix.quartz.internal;
 
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.util.BuddyAllocator;
+import net.roguelogix.quartz.internal.util.LinearAllocator;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.RangeAllocator;
+import net.roguelogix.quartz.internal.util.TLSFAllocator;
 
 import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
@@ -11,6 +15,7 @@ import java.util.function.Consumer;
  * Generic GPU side buffer
  * use GL or VK specific implementations for more details
  * GL implementation is NOT thread safe, and may alter GL state
+ * work done off the render thread stages its data in native memory, and the render thread allocates and copies it in, see InternalMesh's capture
  * VK is unimplemented
  */
 @NonnullDefault
@@ -31,6 +36,35 @@ public interface Buffer {
         public static boolean isCPUMemory(int options) {
             return (options & CPU_MEMORY) != 0;
         }
+        
+        /**
+         * bump allocation, for per-frame scratch that only holds a few allocations at a time
+         * if no allocator option is set, a general purpose allocator is used
+         */
+        public static int LINEAR_ALLOCATOR = 4;
+        
+        public static boolean isLinearAllocator(int options) {
+            return (options & LINEAR_ALLOCATOR) != 0;
+        }
+        
+        /**
+         * power of two buddy allocation, for uniformly sized power of two allocations
+         */
+        public static int BUDDY_ALLOCATOR = 8;
+        
+        public static boolean isBuddyAllocator(int options) {
+            return (options & BUDDY_ALLOCATOR) != 0;
+        }
+        
+        public static RangeAllocator createRangeAllocator(int options, int capacity) {
+            if (isLinearAllocator(options)) {
+                return new LinearAllocator(capacity);
+            }
+            if (isBuddyAllocator(options)) {
+                return new BuddyAllocator(capacity);
+            }
+            return new TLSFAllocator(capacity);
+        }
     }
     
     @FunctionalInterface
@@ -75,6 +109,12 @@ public interface Buffer {
          */
         Buffer allocator();
         
+        /**
+         * Reads dst.size() bytes from offset in this allocation into dst, works on any buffer, unlike address()
+         * GPU memory is read back through the API, that syncs with the GPU, so keep this off hot paths
+         */
+        void read(int offset, PointerWrapper dst);
+        
         /**
          * Copies buffer data internally
          * CPU side only, marks range dirty for next flush
@@ -82,8 +122,9 @@ public interface Buffer {
         void copy(int srcOffset, int dstOffset, int size);
         
         /**
-         * Called when this allocation is reallocated, allocation fed to consumer is the new allocation
+         * Called when this allocation is reallocated or moved by compaction, allocation fed to consumer is the new allocation
          * Callback is fed this allocation immediately at add when added
+         * Buffer growth doesn't change offsets, so it doesn't call these, use the buffer's realloc callback if the buffer handle matters
          * <p>
          * WARNING: these callbacks must only weakly refer to this allocation object, else you will cause a memory leak
          *
@@ -142,8 +183,75 @@ public interface Buffer {
     
     void free(Allocation allocation);
     
+    /**
+     * Handle allocations, an alternative to alloc for hot paths that don't want an allocation object per allocation
+     * a handle is a packed long, (generation << 32) | block, allocating and freeing one creates no garbage
+     * nothing is registered with the cleaner, a handle that isn't freed with freeHandle leaks its space
+     * handles are never moved by compaction, so their offset is stable for their entire life, and there are no realloc callbacks
+     * A stale handle (freed, or its block reused) is caught by the generation, freeing one is a no-op, anything else throws
+     * Alignment must be a power of 2
+     */
+    long NULL_HANDLE = 0;
+    
+    long allocHandle(int size, int alignment);
+    
+    void freeHandle(long handle);
+    
+    boolean isHandleLive(long handle);
+    
+    /**
+     * @return offset (in bytes) into OpenGL buffer
+     */
+    int handleOffset(long handle);
+    
+    /**
+     * @return size requested when the handle was allocated
+     */
+    int handleSize(long handle);
+    
+    /**
+     * @return memory address for the handle's range, only valid until the buffer is reallocated, so don't hold onto it
+     */
+    PointerWrapper handleAddress(long handle);
+    
+    /**
+     * marks range in the handle as dirty, offset is relative to the start of the handle
+     */
+    void dirtyHandleRange(long handle, int offset, int size);
+    
+    /**
+     * Moves up to (about) maxBytes of allocations towards the start of the buffer, so that trim can shrink it
+     * Moved allocations keep their allocation object, realloc callbacks are called with the new offset
+     * May be a no-op, depending on implementation and allocator
+     *
+     * @return bytes moved
+     */
+    default int compact(int maxBytes) {
+        return 0;
+    }
+    
+    /**
+     * Shrinks the buffer once its live data has stayed under a fraction of its size for a number of frames
+     * see QuartzConfig.bufferTrim, only shrinks if the end of the buffer is free, so pair with compact
+     * Meant to be called once per frame, buffer realloc callbacks are called if it shrinks
+     * May be a no-op, depending on implementation and allocator
+     */
+    default void trim() {
+    }
+    
     void dirtyAll();
     
+    /**
+     * @return if allocation addresses can be read on the CPU, mapped GPU memory is generally write only
+     */
+    boolean cpuReadable();
+    
+    /**
+     * Allocator stats for this buffer, snapshot values are refreshed by this call
+     * the returned object is reused by the buffer
+     */
+    BufferStatistics statistics();
+    
     /**
      * Called when the CPU side buffer is changed
      * <p>
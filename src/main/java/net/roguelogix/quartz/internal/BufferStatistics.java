@@ -0,0 +1,117 @@
+package net.roguelogix.quartz.internal;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+/**
+ * Allocator stats for a buffer, or the sum of all of them
+ * Size values are a snapshot taken when the stats are requested, counters are running totals for the life of the buffer
+ */
+@NonnullDefault
+public class BufferStatistics {
+    
+    private static final ObjectArrayList<WeakReference<Buffer>> trackedBuffers = new ObjectArrayList<>();
+    
+    public static void track(Buffer buffer) {
+        synchronized (trackedBuffers) {
+            trackedBuffers.add(new WeakReference<>(buffer));
+        }
+    }
+    
+    /**
+     * Sums the stats of every live buffer
+     * Buffers may update their stats when queried, so this must be called from the render thread
+     */
+    public static BufferStatistics aggregate() {
+        final var total = new BufferStatistics();
+        synchronized (trackedBuffers) {
+            for (int i = 0; i < trackedBuffers.size(); i++) {
+                final var buffer = trackedBuffers.get(i).get();
+                if (buffer == null) {
+                    final var removed = trackedBuffers.pop();
+                    if (i != trackedBuffers.size()) {
+                        trackedBuffers.set(i, removed);
+                    }
+                    i--;
+                    continue;
+                }
+                total.add(buffer.statistics());
+                total.buffers++;
+            }
+        }
+        return total;
+    }
+    
+    public static void addDebugText(List<String> list) {
+        final var stats = aggregate();
+        list.add(String.format("Quartz buffers: %d, %.1f MiB, %.1f MiB live, %.1f MiB free", stats.buffers, mib(stats.capacity), mib(stats.liveBytes), mib(stats.freeBytes)));
+        list.add(String.format("Waste: %.1f MiB, pending free: %.1f MiB, fragmentation: %.0f%%", mib(stats.wastedBytes()), mib(stats.pendingFreeBytes), stats.fragmentation() * 100));
+        list.add(String.format("Resizes: %d (%.1f MiB copied, %d redirected writes), buffer callbacks: %d, compacted: %.1f MiB", stats.expands + stats.trims, mib(stats.resizeBytesCopied), stats.redirectedWrites, stats.reallocCallbacks, mib(stats.compactedBytes)));
+    }
+    
+    private static double mib(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+    
+    // only set for aggregates
+    public int buffers;
+    
+    public long capacity;
+    // requested size of live allocations
+    public long liveBytes;
+    public long liveAllocations;
+    public long freeBytes;
+    // summed for aggregates, which makes fragmentation a size weighted average
+    public long largestFreeBlock;
+    // freed, but the GPU may still be using it
+    public long pendingFreeBytes;
+    
+    public long allocs;
+    public long frees;
+    public long reallocs;
+    public long expands;
+    public long trims;
+    public long resizeBytesCopied;
+    public long reallocCallbacks;
+    public long compactedBytes;
+    // CPU writes redirected away from a pending GPU copy, instead of waiting on it
+    public long redirectedWrites;
+    
+    /**
+     * @return bytes that are neither live nor free, alignment padding, rounding up block sizes, etc
+     */
+    public long wastedBytes() {
+        return capacity - liveBytes - freeBytes - pendingFreeBytes;
+    }
+    
+    /**
+     * @return 0 when all free space is one block, approaches 1 as its split into more, smaller blocks
+     */
+    public double fragmentation() {
+        if (freeBytes == 0) {
+            return 0;
+        }
+        return 1.0 - (double) largestFreeBlock / freeBytes;
+    }
+    
+    public void add(BufferStatistics other) {
+        capacity += other.capacity;
+        liveBytes += other.liveBytes;
+        liveAllocations += other.liveAllocations;
+        freeBytes += other.freeBytes;
+        largestFreeBlock += other.largestFreeBlock;
+        pendingFreeBytes += other.pendingFreeBytes;
+        allocs += other.allocs;
+        frees += other.frees;
+        reallocs += other.reallocs;
+        expands += other.expands;
+        trims += other.trims;
+        resizeBytesCopied += other.resizeBytesCopied;
+        reallocCallbacks += other.reallocCallbacks;
+        compactedBytes += other.compactedBytes;
+        redirectedWrites += other.redirectedWrites;
+    }
+}
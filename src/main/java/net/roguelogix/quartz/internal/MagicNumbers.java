@@ -9,6 +9,10 @@ public class MagicNumbers {
     public static final Matrix4fc IDENTITY_MATRIX = new Matrix4f();
     
     public static final int VERTEX_BYTE_SIZE = 32;
+    // int16 xyz, exponent + octahedral normal, RGBA, unorm16 UV
+    public static final int COMPACT_VERTEX_BYTE_SIZE = 16;
+    // compact positions are scaled by 2^(exponent - bias), a 4 bit exponent gives +-1/16 to +-2048 blocks
+    public static final int COMPACT_VERTEX_EXPONENT_BIAS = 4;
     public static final int FLOAT_BYTE_SIZE = 4;
     public static final int DOUBLE_BYTE_SIZE = 8;
     public static final int SHORT_BYTE_SIZE = 2;
@@ -1,11 +1,31 @@
 package net.roguelogix.quartz.internal;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ReferenceArrayList;
+
 import javax.annotation.Nullable;
 
 @SuppressWarnings("unchecked")
 public class MultiBuffer<T extends Buffer> {
     public class Allocation {
         private final T.Allocation[] backingAllocations = new T.Allocation[backingBuffers.length];
+        private boolean freed = false;
+        
+        private Allocation() {
+            if (lockstep) {
+                // one cleaner for every copy, so they are all freed in the same frame, and the backing allocators see the same operations
+                // holding the array keeps the backing allocations' own cleaners from firing first
+                final var backing = backingAllocations;
+                QuartzCore.mainThreadClean(this, () -> {
+                    for (int i = 0; i < backing.length; i++) {
+                        if (backing[i] != null) {
+                            backing[i].free();
+                        }
+                    }
+                });
+            }
+        }
         
         public T.Allocation activeAllocation() {
             return backingAllocations[activeFrame];
@@ -15,6 +35,31 @@ public class MultiBuffer<T extends Buffer> {
             return backingAllocations[frame % backingAllocations.length];
         }
         
+        /**
+         * Only for lockstep buffers
+         *
+         * @return offset (in bytes) into every frame's buffer
+         */
+        public int offset() {
+            if (!lockstep) {
+                throw new IllegalStateException("Allocation offset differs per frame unless the MultiBuffer is lockstep");
+            }
+            return backingAllocations[0].offset();
+        }
+        
+        public int size() {
+            return backingAllocations[0].size();
+        }
+        
+        /**
+         * Marks a range of the active frame's copy as written, it's copied into the other frames' copies as they become active
+         * so a record that changed only needs to be written once, instead of once per frame
+         * Only replicates between CPU readable backing buffers, others are left alone
+         */
+        public void written(int offset, int size) {
+            MultiBuffer.this.written(this, offset, size);
+        }
+        
         public void free() {
             MultiBuffer.this.free(this);
         }
@@ -25,10 +70,26 @@ public class MultiBuffer<T extends Buffer> {
     }
     
     private final Buffer[] backingBuffers;
+    private final boolean lockstep;
     private int activeFrame;
+    // per backing buffer, ranges written in other frames that still need to be copied in, in the order they were written
+    // a range is the allocation, the frame it was written in, and (offset << 32) | size
+    private final ReferenceArrayList<Allocation>[] pendingAllocations;
+    private final IntArrayList[] pendingSources;
+    private final LongArrayList[] pendingRanges;
     
     public MultiBuffer(int framesInFlight, int... options) {
+        this(false, framesInFlight, options);
+    }
+    
+    /**
+     * @param lockstep: every allocation has the same offset in every frame's buffer, so cross references (matrix IDs, base instances) are frame independent
+     *                  each backing buffer sees the same operations in the same order, so they must all use the same allocator
+     */
+    public MultiBuffer(boolean lockstep, int framesInFlight, int... options) {
+        this.lockstep = lockstep;
         backingBuffers = new Buffer[framesInFlight];
+        final int allocatorOptions = Buffer.Options.LINEAR_ALLOCATOR | Buffer.Options.BUDDY_ALLOCATOR;
         for (int i = 0; i < backingBuffers.length; i++) {
             final int option;
             if (options.length == 1) {
@@ -38,8 +99,19 @@ public class MultiBuffer<T extends Buffer> {
             } else {
                 option = 0;
             }
+            if (lockstep && options.length == framesInFlight && (option & allocatorOptions) != (options[0] & allocatorOptions)) {
+                throw new IllegalArgumentException("Lockstep MultiBuffer backing buffers must use the same allocator");
+            }
             backingBuffers[i] = QuartzCore.INSTANCE.allocBuffer(option);
         }
+        pendingAllocations = new ReferenceArrayList[framesInFlight];
+        pendingSources = new IntArrayList[framesInFlight];
+        pendingRanges = new LongArrayList[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            pendingAllocations[i] = new ReferenceArrayList<>();
+            pendingSources[i] = new IntArrayList();
+            pendingRanges[i] = new LongArrayList();
+        }
     }
     
     public void setActiveFrame(int activeFrame) {
@@ -50,6 +122,10 @@ public class MultiBuffer<T extends Buffer> {
         return activeFrame;
     }
     
+    public boolean lockstep() {
+        return lockstep;
+    }
+    
     public T activeBuffer() {
         return (T) backingBuffers[activeFrame];
     }
@@ -76,6 +152,7 @@ public class MultiBuffer<T extends Buffer> {
         for (int i = 0; i < backingBuffers.length; i++) {
             toRet.backingAllocations[i] = backingBuffers[i].alloc(size, alignment);
         }
+        verifyLockstep(toRet);
         return toRet;
     }
     
@@ -104,15 +181,103 @@ public class MultiBuffer<T extends Buffer> {
         for (int i = 0; i < backingBuffers.length; i++) {
             allocation.backingAllocations[i] = backingBuffers[i].realloc(allocation.backingAllocations[i], newSize, alignment, copyData);
         }
+        verifyLockstep(allocation);
         return allocation;
     }
     
+    private void verifyLockstep(Allocation allocation) {
+        if (!lockstep) {
+            return;
+        }
+        final int offset = allocation.backingAllocations[0].offset();
+        for (int i = 1; i < backingBuffers.length; i++) {
+            if (allocation.backingAllocations[i].offset() != offset) {
+                throw new IllegalStateException("Lockstep MultiBuffer frame copies diverged");
+            }
+        }
+    }
+    
+    private void written(Allocation allocation, int offset, int size) {
+        if (!backingBuffers[activeFrame].cpuReadable()) {
+            throw new IllegalStateException("Cannot replicate writes from a buffer the CPU can't read");
+        }
+        final long range = ((long) offset << 32) | size;
+        for (int i = 0; i < backingBuffers.length; i++) {
+            if (i == activeFrame || !backingBuffers[i].cpuReadable()) {
+                continue;
+            }
+            pendingAllocations[i].add(allocation);
+            pendingSources[i].add(activeFrame);
+            pendingRanges[i].add(range);
+        }
+    }
+    
+    /**
+     * @return if the active frame has writes from other frames waiting to be copied in
+     */
+    public boolean hasPendingWrites() {
+        return !pendingRanges[activeFrame].isEmpty();
+    }
+    
+    /**
+     * Copies writes made in other frames into the active frame's copies, CPU side
+     * the caller must make sure the GPU is done with the active frame's buffers, and call this before writing to them this frame
+     */
+    public void replicatePendingWrites() {
+        final var allocations = pendingAllocations[activeFrame];
+        final var sources = pendingSources[activeFrame];
+        final var ranges = pendingRanges[activeFrame];
+        for (int i = 0; i < ranges.size(); i++) {
+            final var allocation = allocations.get(i);
+            if (allocation.freed) {
+                continue;
+            }
+            final long range = ranges.getLong(i);
+            final int offset = (int) (range >>> 32);
+            final int size = (int) range;
+            final var src = allocation.backingAllocations[sources.getInt(i)];
+            final var dst = allocation.backingAllocations[activeFrame];
+            if (offset + size > src.size() || offset + size > dst.size()) {
+                // reallocated smaller since, stale
+                continue;
+            }
+            src.address().copyTo(offset, dst.address(), offset, size);
+            dst.dirtyRange(offset, size);
+        }
+        allocations.clear();
+        sources.clear();
+        ranges.clear();
+    }
+    
     public void free(Allocation allocation) {
+        allocation.freed = true;
         for (int i = 0; i < allocation.backingAllocations.length; i++) {
             allocation.backingAllocations[i].free();
         }
     }
     
+    /**
+     * Every backing buffer has seen the same allocations, so they all make the same moves and offsets stay in sync
+     *
+     * @return bytes moved per backing buffer
+     */
+    public int compact(int maxBytes) {
+        int bytesMoved = 0;
+        for (int i = 0; i < backingBuffers.length; i++) {
+            bytesMoved = Math.max(bytesMoved, backingBuffers[i].compact(maxBytes));
+        }
+        return bytesMoved;
+    }
+    
+    /**
+     * Same as compact, every backing buffer has the same usage, so they make the same decision
+     */
+    public void trim() {
+        for (int i = 0; i < backingBuffers.length; i++) {
+            backingBuffers[i].trim();
+        }
+    }
+    
     public void dirtyAll() {
         for (int i = 0; i < backingBuffers.length; i++) {
             backingBuffers[i].dirtyAll();
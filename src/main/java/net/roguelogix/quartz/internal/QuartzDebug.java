@@ -8,7 +8,10 @@ public class QuartzDebug {
     public static final boolean DEBUG;
     
     static {
-        if (!doesForgeExist() || runningDatagen()) {
+        if (!doesForgeExist()) {
+            // no config outside of the game (benchmarks), so it's a system property
+            DEBUG = Boolean.getBoolean("quartz.debug");
+        } else if (runningDatagen()) {
             DEBUG = false;
         } else {
             DEBUG = QuartzConfig.INSTANCE.debug;
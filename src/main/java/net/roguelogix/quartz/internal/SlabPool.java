@@ -0,0 +1,208 @@
+package net.roguelogix.quartz.internal;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.util.PointerWrapper;
+
+/**
+ * Fixed stride record pool over a MultiBuffer
+ * Records are grouped into chunks of 64, each chunk is a single allocation with a bitmap of used slots
+ * alloc and free are O(1), and there is no per record alignment waste
+ * <p>
+ * Chunks are never moved, so a slot's offset is stable for its entire life
+ * NOT thread safe
+ */
+@NonnullDefault
+public class SlabPool {
+    
+    private static final int SLOTS_PER_CHUNK = Long.SIZE;
+    
+    /**
+     * Where the chunks live, a MultiBuffer in game, split out so the slot bookkeeping doesn't need GL
+     */
+    public interface ChunkStorage {
+        /**
+         * @return chunk handle
+         */
+        int alloc(int size, int alignment);
+        
+        int offset(int chunk);
+        
+        /**
+         * @return CPU side address of the chunk, in the active frame's buffer
+         */
+        PointerWrapper address(int chunk);
+        
+        void free(int chunk);
+    }
+    
+    private class Chunk {
+        private final int handle = storage.alloc(chunkSize, stride);
+        // set bits are used slots
+        private long usedSlots = 0;
+        private boolean inAvailableStack = false;
+        private boolean freed = false;
+    }
+    
+    public class Slot {
+        private final Chunk chunk;
+        private final int index;
+        private final int chunkOffset;
+        private boolean freed = false;
+        
+        private Slot(Chunk chunk, int index) {
+            this.chunk = chunk;
+            this.index = index;
+            this.chunkOffset = index * stride;
+        }
+        
+        /**
+         * @return offset (in bytes) into the buffer, the same for every frame
+         */
+        public int offset() {
+            return storage.offset(chunk.handle) + chunkOffset;
+        }
+        
+        /**
+         * @return CPU side address of the slot's chunk in the active frame's buffer, cached by the buffer, write at chunkOffset() into it
+         */
+        public PointerWrapper chunkAddress() {
+            return storage.address(chunk.handle);
+        }
+        
+        /**
+         * @return offset (in bytes) of the slot in its chunk
+         */
+        public int chunkOffset() {
+            return chunkOffset;
+        }
+        
+        public void free() {
+            SlabPool.this.free(this);
+        }
+        
+        public SlabPool pool() {
+            return SlabPool.this;
+        }
+    }
+    
+    private final ChunkStorage storage;
+    private final int stride;
+    private final int chunkSize;
+    // chunks with at least one free slot, freed chunks may linger here and are dropped when found
+    private final ObjectArrayList<Chunk> availableChunks = new ObjectArrayList<>();
+    // available chunks that aren't freed, the stack's size counts the lingering ones too
+    private int liveAvailableChunks = 0;
+    
+    /**
+     * @param stride: record size (in bytes), records are also aligned to this, so it must be a power of two
+     */
+    public SlabPool(MultiBuffer<?> buffer, int stride) {
+        this(new MultiBufferStorage(buffer), stride);
+    }
+    
+    public SlabPool(ChunkStorage storage, int stride) {
+        if (Integer.bitCount(stride) != 1) {
+            throw new IllegalArgumentException("Slab stride must be a power of two");
+        }
+        this.storage = storage;
+        this.stride = stride;
+        this.chunkSize = stride * SLOTS_PER_CHUNK;
+    }
+    
+    public int stride() {
+        return stride;
+    }
+    
+    public Slot alloc() {
+        Chunk chunk = null;
+        while (!availableChunks.isEmpty()) {
+            final var top = availableChunks.top();
+            if (!top.freed) {
+                chunk = top;
+                break;
+            }
+            availableChunks.pop();
+        }
+        if (chunk == null) {
+            chunk = new Chunk();
+            chunk.inAvailableStack = true;
+            availableChunks.push(chunk);
+            liveAvailableChunks++;
+        }
+        final int index = Long.numberOfTrailingZeros(~chunk.usedSlots);
+        chunk.usedSlots |= 1L << index;
+        if (chunk.usedSlots == -1L) {
+            availableChunks.pop();
+            chunk.inAvailableStack = false;
+            liveAvailableChunks--;
+        }
+        return new Slot(chunk, index);
+    }
+    
+    public void free(Slot slot) {
+        if (slot.freed) {
+            return;
+        }
+        if (slot.pool() != this) {
+            throw new IllegalArgumentException("Cannot free slot from another pool");
+        }
+        slot.freed = true;
+        final var chunk = slot.chunk;
+        chunk.usedSlots &= ~(1L << slot.index);
+        if (!chunk.inAvailableStack) {
+            chunk.inAvailableStack = true;
+            availableChunks.push(chunk);
+            liveAvailableChunks++;
+        } else if (chunk.usedSlots == 0 && liveAvailableChunks > 1) {
+            // keep one empty chunk around, so alloc/free at the edge doesn't thrash the buffer
+            chunk.freed = true;
+            liveAvailableChunks--;
+            storage.free(chunk.handle);
+        }
+    }
+    
+    private static class MultiBufferStorage implements ChunkStorage {
+        
+        private final MultiBuffer<?> buffer;
+        private final ObjectArrayList<MultiBuffer<?>.Allocation> chunks = new ObjectArrayList<>();
+        private final IntArrayList freeHandles = new IntArrayList();
+        
+        private MultiBufferStorage(MultiBuffer<?> buffer) {
+            if (!buffer.lockstep()) {
+                throw new IllegalArgumentException("Slab pool buffer must be lockstep, slot offsets are shared by every frame");
+            }
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int alloc(int size, int alignment) {
+            final var allocation = buffer.alloc(size, alignment);
+            if (!freeHandles.isEmpty()) {
+                final int handle = freeHandles.popInt();
+                chunks.set(handle, allocation);
+                return handle;
+            }
+            chunks.add(allocation);
+            return chunks.size() - 1;
+        }
+        
+        @Override
+        public int offset(int chunk) {
+            return chunks.get(chunk).offset();
+        }
+        
+        @Override
+        public PointerWrapper address(int chunk) {
+            return chunks.get(chunk).activeAllocation().address();
+        }
+        
+        @Override
+        public void free(int chunk) {
+            chunks.get(chunk).free();
+            chunks.set(chunk, null);
+            freeHandles.add(chunk);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import net.roguelogix.quartz.internal.Buffer;
 import net.roguelogix.quartz.internal.MagicNumbers;
 import net.roguelogix.quartz.internal.MultiBuffer;
 import net.roguelogix.quartz.internal.QuartzCore;
+import net.roguelogix.quartz.internal.SlabPool;
 
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
@@ -19,7 +20,7 @@ import java.lang.ref.WeakReference;
 public class DynamicMatrixManager implements DynamicMatrix.Manager {
     
     public static class Matrix implements DynamicMatrix {
-        private final MultiBuffer<?>.Allocation allocation;
+        private final SlabPool.Slot slot;
         private final Matrix4f localTransformMatrix = new Matrix4f();
         private final Matrix4f transformMatrix = new Matrix4f();
         private final Matrix4f normalMatrix = new Matrix4f();
@@ -29,17 +30,17 @@ public class DynamicMatrixManager implements DynamicMatrix.Manager {
         
         private boolean deleted = false;
         
-        public Matrix(@Nullable Matrix4fc initialValue, MultiBuffer<?>.Allocation allocation, @Nullable UpdateFunc updateFunc, ObjectArrayList<WeakReference<Matrix>> matrixList) {
+        public Matrix(@Nullable Matrix4fc initialValue, SlabPool.Slot slot, @Nullable UpdateFunc updateFunc, ObjectArrayList<WeakReference<Matrix>> matrixList) {
             if (initialValue != null) {
                 this.localTransformMatrix.set(initialValue);
             }
-            this.allocation = allocation;
+            this.slot = slot;
             this.updateFunc = updateFunc;
             final var ref = new WeakReference<>(this);
             matrixList.add(ref);
             QuartzCore.mainThreadClean(this, () -> {
                 matrixList.remove(ref);
-                allocation.free();
+                slot.free();
             });
         }
         
@@ -53,9 +54,10 @@ public class DynamicMatrixManager implements DynamicMatrix.Manager {
             transformMatrix.set(localTransformMatrix);
             parentTransform.mul(transformMatrix, transformMatrix);
             transformMatrix.normal(normalMatrix);
-            final var buffer = allocation.activeAllocation().address();
-            buffer.putMatrix4fIdx(0, transformMatrix);
-            buffer.putMatrix4fIdx(1, normalMatrix);
+            final var chunk = slot.chunkAddress();
+            final int offset = slot.chunkOffset();
+            chunk.putMatrix4f(offset, transformMatrix);
+            chunk.putMatrix4f(offset + MagicNumbers.MATRIX_4F_BYTE_SIZE, normalMatrix);
             for (int i = 0; i < childMatrices.size(); i++) {
                 var mat = childMatrices.get(i).get();
                 if (mat == null || mat.deleted) {
@@ -71,8 +73,8 @@ public class DynamicMatrixManager implements DynamicMatrix.Manager {
                 }
         }
         
-        public int id(int frame) {
-            return allocation.allocation(frame).offset() / MagicNumbers.MATRIX_4F_BYTE_SIZE_2;
+        public int id() {
+            return slot.offset() / MagicNumbers.MATRIX_4F_BYTE_SIZE_2;
         }
         
         @Override
@@ -92,10 +94,13 @@ public class DynamicMatrixManager implements DynamicMatrix.Manager {
     }
     
     private final MultiBuffer<?> buffer;
+    // every matrix is the same size, so they are packed into slabs rather than allocated one by one
+    private final SlabPool matrixPool;
     private final ObjectArrayList<WeakReference<Matrix>> rootMatrices = new ObjectArrayList<>();
     
     public DynamicMatrixManager(MultiBuffer<?> buffer) {
         this.buffer = buffer;
+        this.matrixPool = new SlabPool(buffer, MagicNumbers.MATRIX_4F_BYTE_SIZE_2);
     }
     
     @Override
@@ -109,13 +114,13 @@ public class DynamicMatrixManager implements DynamicMatrix.Manager {
             }
         }
         final var list = parentMatrix == null ? rootMatrices : ((Matrix) parent).childMatrices;
-        return new Matrix(initialValue, buffer.alloc(MagicNumbers.MATRIX_4F_BYTE_SIZE_2, MagicNumbers.MATRIX_4F_BYTE_SIZE_2), updateFunc, list);
+        return new Matrix(initialValue, matrixPool.alloc(), updateFunc, list);
     }
     
     @Override
     public boolean owns(@Nullable DynamicMatrix dynamicMatrix) {
         if (dynamicMatrix instanceof Matrix mat) {
-            return mat.allocation.allocator() == buffer;
+            return mat.slot.pool() == matrixPool;
         }
         return false;
     }
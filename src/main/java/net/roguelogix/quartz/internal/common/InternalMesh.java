@@ -2,45 +2,70 @@ package net.roguelogix.quartz.internal.common;
 
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexConsumer;
-import it.unimi.dsi.fastutil.objects.Object2LongArrayMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import me.jellysquid.mods.sodium.client.render.vertex.VertexConsumerTracker;
+import net.minecraft.Util;
 import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.RenderType;
 import net.roguelogix.phosphophyllite.registry.ClientOnly;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.Mesh;
+import net.roguelogix.quartz.QuartzConfig;
 import net.roguelogix.quartz.internal.Buffer;
+import net.roguelogix.quartz.internal.MagicNumbers;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.PointerWriter;
 import org.joml.Vector3f;
 
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
-import java.util.function.Function;
-
-import static net.roguelogix.quartz.internal.MagicNumbers.VERTEX_BYTE_SIZE;
 
 @NonnullDefault
 public class InternalMesh implements Mesh {
     
+    // read once, every mesh shares the vertex buffer, so there can only be one format
+    public static final boolean COMPACT_VERTICES = QuartzConfig.INSTANCE.compactVertices;
+    public static final int VERTEX_BYTE_SIZE = COMPACT_VERTICES ? MagicNumbers.COMPACT_VERTEX_BYTE_SIZE : MagicNumbers.VERTEX_BYTE_SIZE;
+    
     public Consumer<Mesh.Builder> buildFunc;
+    // build func may be run off the render thread, during resource reload
+    public final boolean threadSafeBuild;
     
     public InternalMesh(Consumer<Mesh.Builder> buildFunc) {
+        this(buildFunc, false);
+    }
+    
+    public InternalMesh(Consumer<Mesh.Builder> buildFunc, boolean threadSafeBuild) {
         this.buildFunc = buildFunc;
+        this.threadSafeBuild = threadSafeBuild;
     }
     
-    public Object2LongArrayMap<RenderType> build(Function<Integer, PointerWrapper> bufferCreator) {
-        Builder builder = new Builder();
-        buildFunc.accept(builder);
-        var buffer = bufferCreator.apply(builder.bytesRequired());
-        return builder.build(buffer);
+    /**
+     * Runs the build func, vertices are staged in native memory until the builder is built or freed
+     * doesn't touch any GL or buffer state, so can be called from any thread
+     */
+    private Builder capture() {
+        final var builder = new Builder();
+        try {
+            buildFunc.accept(builder);
+            builder.orderRenderTypes();
+        } catch (Throwable e) {
+            builder.free();
+            throw e;
+        }
+        return builder;
     }
     
     @Override
@@ -49,36 +74,16 @@ public class InternalMesh implements Mesh {
     }
     
     private static class Builder implements Mesh.Builder, MultiBufferSource {
-        private static class Vertex {
-            
-            Vertex() {
-            }
-            
-            Vertex(Vertex toCopy) {
-                x = toCopy.x;
-                y = toCopy.y;
-                z = toCopy.z;
-                normalX = toCopy.normalX;
-                normalY = toCopy.normalY;
-                normalZ = toCopy.normalZ;
-                rgba = toCopy.rgba;
-                texU = toCopy.texU;
-                texV = toCopy.texV;
-                lightmapU = toCopy.lightmapU;
-                lightmapV = toCopy.lightmapV;
-            }
-            
-            float x = 0, y = 0, z = 0;
-            float normalX = 0, normalY = 0, normalZ = 0;
-            int rgba = -1;
-            float texU = 0, texV = 0;
-            
-            int lightmapU = 0, lightmapV = 0;
-        }
         
+        /**
+         * Writes vertices straight into a growable native buffer, already in the final (full or compact) format
+         * so building the mesh is just a copy per render type
+         */
         @ClientOnly
         private static class BufferBuilder implements VertexConsumer {
             
+            private static final int INITIAL_VERTEX_CAPACITY = 64;
+            
             @OnModLoad
             private static void onModLoad() {
                 try {
@@ -91,8 +96,15 @@ public class InternalMesh implements Mesh {
                 }
             }
             
-            Vertex currentVertex = new Vertex();
-            final LinkedList<Vertex> vertices = new LinkedList<>();
+            // current vertex, values carry over to the next vertex unless set again
+            private float x = 0, y = 0, z = 0;
+            private float normalX = 0, normalY = 0, normalZ = 0;
+            private int rgba = -1;
+            private float texU = 0, texV = 0;
+            
+            private PointerWrapper vertices = PointerWrapper.NULLPTR;
+            private int vertexCount = 0;
+            private final Vector3f tempNormalVec = new Vector3f();
             
             private boolean defaultColorSet = false;
             private int drgba;
@@ -100,9 +112,9 @@ public class InternalMesh implements Mesh {
             @Override
             public VertexConsumer vertex(double x, double y, double z) {
                 // its uploaded to GL as a float, so its cased here
-                currentVertex.x = (float) x;
-                currentVertex.y = (float) y;
-                currentVertex.z = (float) z;
+                this.x = (float) x;
+                this.y = (float) y;
+                this.z = (float) z;
                 return this;
             }
             
@@ -110,14 +122,14 @@ public class InternalMesh implements Mesh {
             public VertexConsumer color(int r, int g, int b, int a) {
                 // assumes each value is <= 255, if i need to put an "& 0xFF" on these, im going to find you
                 // as a side note, that means you can pass in an RGBA value in r
-                currentVertex.rgba = (a << 24) | (b << 16) | (g << 8) | r;
+                rgba = (a << 24) | (b << 16) | (g << 8) | r;
                 return this;
             }
             
             @Override
             public VertexConsumer uv(float u, float v) {
-                currentVertex.texU = u;
-                currentVertex.texV = v;
+                texU = u;
+                texV = v;
                 return this;
             }
             
@@ -130,27 +142,89 @@ public class InternalMesh implements Mesh {
             
             @Override
             public VertexConsumer uv2(int u2, int v2) {
-                currentVertex.lightmapU = u2;
-                currentVertex.lightmapV = v2;
+                // lighting comes from the light engine, not the lightmap, so this isn't part of the vertex format
                 return this;
             }
             
             @Override
             public VertexConsumer normal(float nx, float ny, float nz) {
-                currentVertex.normalX = nx;
-                currentVertex.normalY = ny;
-                currentVertex.normalZ = nz;
+                normalX = nx;
+                normalY = ny;
+                normalZ = nz;
                 return this;
             }
             
             @Override
             public void endVertex() {
-                vertices.add(currentVertex);
+                final long vertexOffset = (long) vertexCount * VERTEX_BYTE_SIZE;
+                if (vertexOffset + VERTEX_BYTE_SIZE > vertices.size()) {
+                    final long newSize = Math.max((long) INITIAL_VERTEX_CAPACITY * VERTEX_BYTE_SIZE, vertices.size() * 2);
+                    vertices = vertices == PointerWrapper.NULLPTR ? PointerWrapper.alloc(newSize) : vertices.realloc(newSize);
+                }
+                final var vertexWriter = PointerWriter.of(vertices, vertexOffset, VERTEX_BYTE_SIZE);
+                if (COMPACT_VERTICES) {
+                    writeCompactVertex(vertexWriter);
+                } else {
+                    writeVertex(vertexWriter);
+                }
+                vertexCount++;
                 
-                currentVertex = new Vertex(currentVertex);
                 if (defaultColorSet) {
-                    currentVertex.rgba = drgba;
+                    rgba = drgba;
+                }
+            }
+            
+            private void writeVertex(PointerWriter vertexWriter) {
+                vertexWriter.putFloatIdx(0, x); // 4
+                vertexWriter.putFloatIdx(1, y); // 8
+                vertexWriter.putFloatIdx(2, z); // 12
+                vertexWriter.putIntIdx(3, rgba); // 16
+                vertexWriter.putFloatIdx(4, texU); // 20
+                vertexWriter.putFloatIdx(5, texV); // 24
+                
+                tempNormalVec.set(normalX, normalY, normalZ);
+                tempNormalVec.normalize(Short.MAX_VALUE);
+                
+                vertexWriter.putShortIdx(12, (short) tempNormalVec.x);
+                vertexWriter.putShortIdx(13, (short) tempNormalVec.y);
+                vertexWriter.putShortIdx(14, (short) tempNormalVec.z);
+                vertexWriter.putShortIdx(15, (short) 0);
+            }
+            
+            /**
+             * Positions share one exponent per vertex, picked from its largest component, so a mesh's precision scales with its size
+             * and 1/16th block steps stay exact, same position always encodes the same, so shared edges don't crack
+             */
+            private void writeCompactVertex(PointerWriter vertexWriter) {
+                final float maxComponent = Math.max(Math.abs(x), Math.max(Math.abs(y), Math.abs(z)));
+                final int exponent = Math.max(-MagicNumbers.COMPACT_VERTEX_EXPONENT_BIAS, Math.min(15 - MagicNumbers.COMPACT_VERTEX_EXPONENT_BIAS, Math.getExponent(maxComponent) + 1));
+                final float positionScale = Math.scalb(1.0f, 15 - exponent);
+                vertexWriter.putShortIdx(0, quantizeSigned(x * positionScale)); // 2
+                vertexWriter.putShortIdx(1, quantizeSigned(y * positionScale)); // 4
+                vertexWriter.putShortIdx(2, quantizeSigned(z * positionScale)); // 6
+                
+                // octahedral, 6 bits each, 31 is the center so axis aligned normals are exact
+                float octX = 0, octY = 0;
+                final float l1Length = Math.abs(normalX) + Math.abs(normalY) + Math.abs(normalZ);
+                if (l1Length > 0) {
+                    octX = normalX / l1Length;
+                    octY = normalY / l1Length;
+                    if (normalZ < 0) {
+                        final float foldedX = (1 - Math.abs(octY)) * (octX >= 0 ? 1 : -1);
+                        octY = (1 - Math.abs(octX)) * (octY >= 0 ? 1 : -1);
+                        octX = foldedX;
+                    }
                 }
+                final int packedNormal = (Math.round((octX + 1) * 31) << 6) | Math.round((octY + 1) * 31);
+                vertexWriter.putShortIdx(3, (short) (((exponent + MagicNumbers.COMPACT_VERTEX_EXPONENT_BIAS) << 12) | packedNormal)); // 8
+                vertexWriter.putIntIdx(2, rgba); // 12
+                // atlas UVs are always 0-1
+                vertexWriter.putShortIdx(6, (short) Math.round(Math.max(0, Math.min(1, texU)) * 65535)); // 14
+                vertexWriter.putShortIdx(7, (short) Math.round(Math.max(0, Math.min(1, texV)) * 65535)); // 16
+            }
+            
+            private static short quantizeSigned(float value) {
+                return (short) Math.max(-32767, Math.min(32767, Math.round(value)));
             }
             
             @Override
@@ -166,10 +240,17 @@ public class InternalMesh implements Mesh {
                 defaultColorSet = false;
             }
             
+            private void free() {
+                vertices.free();
+                vertices = PointerWrapper.NULLPTR;
+                vertexCount = 0;
+            }
         }
         
         private final PoseStack poseStack = new PoseStack();
         private final HashMap<RenderType, BufferBuilder> buffers = new HashMap<>();
+        // set by orderRenderTypes, HashMap order depends on identity hashes, which aren't the same for every run or every mesh
+        private final ObjectArrayList<RenderType> renderTypeOrder = new ObjectArrayList<>();
         
         Builder() {
         }
@@ -195,61 +276,79 @@ public class InternalMesh implements Mesh {
         int bytesRequired() {
             int totalVertices = 0;
             for (var entry : buffers.entrySet()) {
-                var renderType = entry.getKey();
-                var bufferBuilder = entry.getValue();
-                int vertexCount = bufferBuilder.vertices.size() - bufferBuilder.vertices.size() % renderType.mode().primitiveLength;
-                if (vertexCount == 0) {
-                    continue;
-                }
-                totalVertices += vertexCount;
+                totalVertices += usableVertexCount(entry.getKey(), entry.getValue());
             }
             return totalVertices * VERTEX_BYTE_SIZE;
         }
         
-        Object2LongArrayMap<RenderType> build(PointerWrapper masterBuffer) {
-            Object2LongArrayMap<RenderType> drawInfoMap = new Object2LongArrayMap<>();
+        void orderRenderTypes() {
+            renderTypeOrder.clear();
+            renderTypeOrder.addAll(buffers.keySet());
+            renderTypeOrder.sort(Comparator.comparing(RenderType::toString));
+        }
+        
+        private static int usableVertexCount(RenderType renderType, BufferBuilder bufferBuilder) {
+            // trailing partial primitives are dropped
+            return bufferBuilder.vertexCount - bufferBuilder.vertexCount % renderType.mode().primitiveLength;
+        }
+        
+        /**
+         * Lays out every render type's vertices, in orderRenderTypes' order
+         * the components are relative to the start of masterBuffer, which must be VERTEX_BYTE_SIZE aligned in its buffer
+         */
+        Object2ObjectArrayMap<RenderType, Manager.TrackedMesh.Component> build(PointerWrapper masterBuffer) {
+            final var drawInfoMap = new Object2ObjectArrayMap<RenderType, Manager.TrackedMesh.Component>();
             
             int currentByteIndex = 0;
-            for (var entry : buffers.entrySet()) {
-                RenderType renderType = entry.getKey();
-                BufferBuilder bufferBuilder = entry.getValue();
-                int vertexCount = bufferBuilder.vertices.size() - bufferBuilder.vertices.size() % renderType.mode().primitiveLength;
+            for (var renderType : renderTypeOrder) {
+                BufferBuilder bufferBuilder = buffers.get(renderType);
+                final int vertexCount = usableVertexCount(renderType, bufferBuilder);
                 if (vertexCount == 0) {
                     continue;
                 }
-                final long offsetAndSize = (long) (currentByteIndex / VERTEX_BYTE_SIZE) << 32 | (long) vertexCount;
-                final var typeBuffer = masterBuffer.slice(currentByteIndex, vertexCount * VERTEX_BYTE_SIZE);
-                currentByteIndex += vertexCount * VERTEX_BYTE_SIZE;
-                
-                Vector3f tempNormalVec = new Vector3f();
-                
-                int vertexIndex = 0;
-                for (Vertex vertex : bufferBuilder.vertices) {
-                    if (vertexIndex > vertexCount) {
-                        break;
-                    }
-                    final var vertexBuffer = typeBuffer.slice((long) vertexIndex * VERTEX_BYTE_SIZE, VERTEX_BYTE_SIZE);
-                    
-                    vertexBuffer.putFloatIdx(0, vertex.x); // 4
-                    vertexBuffer.putFloatIdx(1, vertex.y); // 8
-                    vertexBuffer.putFloatIdx(2, vertex.z); // 12
-                    vertexBuffer.putIntIdx(3, vertex.rgba); // 16
-                    vertexBuffer.putFloatIdx(4, vertex.texU); // 20
-                    vertexBuffer.putFloatIdx(5, vertex.texV); // 24
-                    
-                    tempNormalVec.set(vertex.normalX, vertex.normalY, vertex.normalZ);
-                    tempNormalVec.normalize(Short.MAX_VALUE);
-                    
-                    vertexBuffer.putShortIdx(12, (short) tempNormalVec.x);
-                    vertexBuffer.putShortIdx(13, (short) tempNormalVec.y);
-                    vertexBuffer.putShortIdx(14, (short) tempNormalVec.z);
-                    vertexIndex++;
-                }
-                drawInfoMap.put(renderType, offsetAndSize);
+                final int vertexBytes = vertexCount * VERTEX_BYTE_SIZE;
+                if (masterBuffer != PointerWrapper.NULLPTR) {
+                    bufferBuilder.vertices.copyTo(0, masterBuffer, currentByteIndex, vertexBytes);
+                }
+                drawInfoMap.put(renderType, new Manager.TrackedMesh.Component(currentByteIndex / VERTEX_BYTE_SIZE, vertexCount));
+                currentByteIndex += vertexBytes;
             }
             return drawInfoMap;
         }
         
+        /**
+         * Hash of the vertex data, and which render type each is for, in build order
+         * only picks the candidate, a match is confirmed against the candidate's CPU copy
+         */
+        long contentHash() {
+            long hash = 0x9E3779B97F4A7C15L;
+            for (var renderType : renderTypeOrder) {
+                final var bufferBuilder = buffers.get(renderType);
+                final int vertexCount = usableVertexCount(renderType, bufferBuilder);
+                if (vertexCount == 0) {
+                    continue;
+                }
+                hash = mixHash(hash, renderType.toString().hashCode());
+                final var vertices = bufferBuilder.vertices;
+                final long bytes = (long) vertexCount * VERTEX_BYTE_SIZE;
+                // vertices are a multiple of 8 bytes
+                for (long i = 0; i < bytes; i += Long.BYTES) {
+                    hash = mixHash(hash, vertices.getLong(i));
+                }
+            }
+            return hash ^ (hash >>> 29);
+        }
+        
+        private static long mixHash(long hash, long value) {
+            return Long.rotateLeft(hash ^ (value * 0x87C37B91114253D5L), 31) * 0x4CF5AD432745937FL;
+        }
+        
+        void free() {
+            for (var bufferBuilder : buffers.values()) {
+                bufferBuilder.free();
+            }
+        }
+        
         private static int packInt(int value, int position, int width) {
             int signBitMask = 1 << (width - 1);
             int bitMask = signBitMask - 1;
@@ -274,46 +373,87 @@ public class InternalMesh implements Mesh {
             }
             
             public final WeakReference<InternalMesh> meshRef;
-            private final Buffer vertexBuffer;
+            private final boolean threadSafeBuild;
+            private final Manager manager;
             @Nullable
-            private Buffer.Allocation vertexAllocation;
+            private SharedVertices vertices;
+            // offset the components were last computed with, compaction can move the allocation without a rebuild
+            private int builtVertexOffset = -1;
             private final Object2ObjectArrayMap<RenderType, Component> drawInfo = new Object2ObjectArrayMap<>();
             private final ObjectArrayList<Consumer<TrackedMesh>> buildCallbacks = new ObjectArrayList<>();
             
-            public TrackedMesh(WeakReference<InternalMesh> meshRef, Buffer vertexBuffer) {
+            private TrackedMesh(WeakReference<InternalMesh> meshRef, boolean threadSafeBuild, Manager manager) {
                 this.meshRef = meshRef;
-                this.vertexBuffer = vertexBuffer;
+                this.threadSafeBuild = threadSafeBuild;
+                this.manager = manager;
             }
             
             void rebuild() {
+                final var builder = capture();
+                if (builder == null) {
+                    return;
+                }
                 QuartzCore.INSTANCE.waitIdle();
+                upload(builder);
+            }
+            
+            /**
+             * CPU half of a rebuild, thread safe as long as the mesh's build func is
+             *
+             * @return staged vertices, null if the mesh is gone
+             */
+            @Nullable
+            private Builder capture() {
                 var mesh = meshRef.get();
                 if (mesh == null) {
-                    return;
+                    return null;
+                }
+                return mesh.capture();
+            }
+            
+            /**
+             * Render thread half of a rebuild, the GPU must be idle, frees the builder
+             */
+            private void upload(Builder builder) {
+                final SharedVertices newVertices;
+                try {
+                    newVertices = manager.acquireVertices(builder, this);
+                } finally {
+                    builder.free();
                 }
-                Object2LongArrayMap<RenderType> rawDrawInfo;
+                // released after acquiring, so a rebuild to the same data keeps it
+                releaseVertices();
+                vertices = newVertices;
+                updateDrawInfo();
+            }
+            
+            private void releaseVertices() {
+                if (vertices != null) {
+                    vertices.release(this);
+                    vertices = null;
+                }
+            }
+            
+            private void updateDrawInfo() {
+                assert vertices != null;
                 drawInfo.clear();
-                rawDrawInfo = mesh.build(this::allocBuffer);
-                assert vertexAllocation != null;
-                vertexAllocation.dirty();
-                for (var renderTypeEntry : rawDrawInfo.object2LongEntrySet()) {
-                    var renderType = renderTypeEntry.getKey();
-                    var drawLong = renderTypeEntry.getLongValue();
-                    var drawComponent = new Component((int) (drawLong >> 32) + vertexAllocation.offset() / VERTEX_BYTE_SIZE, (int) drawLong);
-                    drawInfo.put(renderType, drawComponent);
+                builtVertexOffset = vertices.allocation.offset();
+                final int baseVertex = builtVertexOffset / VERTEX_BYTE_SIZE;
+                for (var renderTypeEntry : vertices.rawDrawInfo.entrySet()) {
+                    var raw = renderTypeEntry.getValue();
+                    var drawComponent = new Component(raw.vertexOffset() + baseVertex, raw.vertexCount());
+                    drawInfo.put(renderTypeEntry.getKey(), drawComponent);
                 }
                 for (int i = 0; i < buildCallbacks.size(); i++) {
                     buildCallbacks.get(i).accept(this);
                 }
             }
             
-            private PointerWrapper allocBuffer(int size) {
-                if (vertexAllocation != null) {
-                    vertexAllocation = vertexBuffer.realloc(vertexAllocation, size, VERTEX_BYTE_SIZE, false);
-                } else {
-                    vertexAllocation = vertexBuffer.alloc(size, VERTEX_BYTE_SIZE);
+            private void onVerticesMoved() {
+                if (vertices == null || vertices.allocation.offset() == builtVertexOffset) {
+                    return;
                 }
-                return vertexAllocation.address();
+                updateDrawInfo();
             }
             
             public Collection<RenderType> usedRenderTypes() {
@@ -334,7 +474,95 @@ public class InternalMesh implements Mesh {
             }
         }
         
+        /**
+         * Vertex data in the buffer, shared by every tracked mesh that built to the same bytes
+         * the staged CPU copy is kept as the shadow until the build batch it was made in ends, hash hits in the batch compare against it
+         * after that a hash hit reads the candidate back instead, so resident memory isn't doubled
+         * render thread only
+         */
+        private static class SharedVertices {
+            private final Manager manager;
+            private final long hash;
+            private final int size;
+            @Nullable
+            private PointerWrapper shadow;
+            private final Object2ObjectArrayMap<RenderType, TrackedMesh.Component> rawDrawInfo;
+            private Buffer.Allocation allocation;
+            private final Buffer.CallbackHandle reallocHandle;
+            private final ObjectArrayList<TrackedMesh> users = new ObjectArrayList<>(1);
+            // false if another entry already had this hash, then its just not shared
+            private boolean registered = false;
+            
+            private SharedVertices(Manager manager, long hash, int size, @Nullable PointerWrapper shadow, Object2ObjectArrayMap<RenderType, TrackedMesh.Component> rawDrawInfo, Buffer.Allocation allocation) {
+                this.manager = manager;
+                this.hash = hash;
+                this.size = size;
+                this.shadow = shadow;
+                this.rawDrawInfo = rawDrawInfo;
+                this.allocation = allocation;
+                final var ref = new WeakReference<>(this);
+                reallocHandle = allocation.addReallocCallback(newAllocation -> {
+                    final var sharedVertices = ref.get();
+                    if (sharedVertices == null) {
+                        return;
+                    }
+                    sharedVertices.allocation = newAllocation;
+                    for (int i = 0; i < sharedVertices.users.size(); i++) {
+                        sharedVertices.users.get(i).onVerticesMoved();
+                    }
+                });
+            }
+            
+            private boolean matches(PointerWrapper staged, Object2ObjectArrayMap<RenderType, TrackedMesh.Component> rawDrawInfo) {
+                if (size != staged.size() || !this.rawDrawInfo.equals(rawDrawInfo)) {
+                    return false;
+                }
+                if (size == 0) {
+                    return true;
+                }
+                if (shadow != null) {
+                    return PointerWrapper.contentEquals(shadow, 0, staged, 0, size);
+                }
+                // built in an earlier batch, read it back, only happens on a hash hit so the sync is rare
+                final var readBack = PointerWrapper.alloc(size);
+                try {
+                    allocation.read(0, readBack);
+                    return PointerWrapper.contentEquals(readBack, 0, staged, 0, size);
+                } finally {
+                    readBack.free();
+                }
+            }
+            
+            private void dropShadow() {
+                if (shadow != null) {
+                    shadow.free();
+                    shadow = null;
+                }
+            }
+            
+            private void release(TrackedMesh user) {
+                users.remove(user);
+                if (!users.isEmpty()) {
+                    return;
+                }
+                reallocHandle.delete();
+                allocation.free();
+                dropShadow();
+                if (registered) {
+                    manager.sharedVertices.remove(hash);
+                }
+            }
+        }
+        
         private final ObjectArrayList<TrackedMesh> trackedMeshes = new ObjectArrayList<TrackedMesh>();
+        // BlockState / ResourceLocation -> mesh, so everyone asking for the same thing gets the same mesh, and the same instance managers
+        private final Object2ObjectOpenHashMap<Object, WeakReference<InternalMesh>> internedMeshes = new Object2ObjectOpenHashMap<>();
+        // content hash -> vertex data
+        private final Long2ObjectOpenHashMap<SharedVertices> sharedVertices = new Long2ObjectOpenHashMap<>();
+        // vertices uploaded in the current build batch, their shadows are dropped when it ends
+        private final ObjectArrayList<SharedVertices> shadowedVertices = new ObjectArrayList<>();
+        private boolean buildingBatch = false;
+        private long dedupedBytes = 0;
         public final Buffer vertexBuffer;
         
         public Manager(Buffer vertexBuffer) {
@@ -342,19 +570,99 @@ public class InternalMesh implements Mesh {
         }
         
         public InternalMesh createMesh(Consumer<Mesh.Builder> buildFunc) {
-            final var staticMesh = new InternalMesh(buildFunc);
-            final var trackedMesh = new TrackedMesh(new WeakReference<>(staticMesh), vertexBuffer);
+            return createMesh(buildFunc, false);
+        }
+        
+        /**
+         * @param threadSafeBuild: build func may be run on a worker thread, only Quartz's own build funcs and ones a mod opted in are
+         */
+        public InternalMesh createMesh(Consumer<Mesh.Builder> buildFunc, boolean threadSafeBuild) {
+            final var staticMesh = new InternalMesh(buildFunc, threadSafeBuild);
+            final var trackedMesh = new TrackedMesh(new WeakReference<>(staticMesh), threadSafeBuild, this);
             synchronized (trackedMeshes) {
                 trackedMeshes.add(trackedMesh);
             }
-            QuartzCore.CLEANER.register(staticMesh, () -> {
+            QuartzCore.mainThreadClean(staticMesh, () -> {
                 synchronized (trackedMeshes) {
                     trackedMeshes.remove(trackedMesh);
                 }
+                trackedMesh.releaseVertices();
             });
             return staticMesh;
         }
         
+        /**
+         * Returns the existing mesh for the key if there is one, otherwise creates it with the build func
+         * the key must be something that fully determines the mesh, like a BlockState or model ResourceLocation
+         */
+        public InternalMesh internMesh(Object key, Consumer<Mesh.Builder> buildFunc, boolean threadSafeBuild) {
+            synchronized (internedMeshes) {
+                final var existingRef = internedMeshes.get(key);
+                if (existingRef != null) {
+                    final var existing = existingRef.get();
+                    if (existing != null) {
+                        return existing;
+                    }
+                }
+                final var mesh = createMesh(buildFunc, threadSafeBuild);
+                final var ref = new WeakReference<>(mesh);
+                internedMeshes.put(key, ref);
+                QuartzCore.CLEANER.register(mesh, () -> {
+                    synchronized (internedMeshes) {
+                        internedMeshes.remove(key, ref);
+                    }
+                });
+                return mesh;
+            }
+        }
+        
+        /**
+         * Finds vertex data identical to what the builder has, or uploads it if there isn't any
+         */
+        private SharedVertices acquireVertices(Builder builder, TrackedMesh user) {
+            final int size = builder.bytesRequired();
+            final long hash = builder.contentHash();
+            // built on the CPU first, it's compared against the candidate, and kept as the shadow for the rest of the batch if it doesn't match
+            final var staged = size == 0 ? PointerWrapper.NULLPTR : PointerWrapper.alloc(size);
+            final Object2ObjectArrayMap<RenderType, TrackedMesh.Component> layout;
+            try {
+                layout = builder.build(staged);
+            } catch (Throwable e) {
+                staged.free();
+                throw e;
+            }
+            var vertices = sharedVertices.get(hash);
+            if (vertices != null && vertices.matches(staged, layout)) {
+                staged.free();
+                dedupedBytes += size;
+            } else {
+                final var allocation = vertexBuffer.alloc(size, VERTEX_BYTE_SIZE);
+                if (size != 0) {
+                    staged.copyTo(allocation.address());
+                }
+                allocation.dirty();
+                final boolean register = vertices == null;
+                final boolean keepShadow = buildingBatch && size != 0;
+                if (!keepShadow) {
+                    staged.free();
+                }
+                vertices = new SharedVertices(this, hash, size, keepShadow ? staged : null, layout, allocation);
+                if (keepShadow) {
+                    shadowedVertices.add(vertices);
+                }
+                if (register) {
+                    sharedVertices.put(hash, vertices);
+                    vertices.registered = true;
+                }
+            }
+            vertices.users.add(user);
+            return vertices;
+        }
+        
+        public void addDebugText(List<String> list) {
+            list.add(String.format("Quartz meshes: %d, %d unique, %.1f KiB deduplicated", trackedMeshes.size(), sharedVertices.size(), dedupedBytes / 1024.0));
+        }
+        
         @Nullable
         public TrackedMesh getMeshInfo(Mesh mesh) {
             for (int i = 0; i < trackedMeshes.size(); i++) {
@@ -366,9 +674,64 @@ public class InternalMesh implements Mesh {
             return null;
         }
         
+        /**
+         * Thread safe build funcs are run on the background executor, the rest on the render thread, then everything is uploaded with a single waitIdle
+         * a build func that fails on a worker is retried on the render thread, some may not like being off it
+         */
         public void buildAllMeshes() {
-            for (TrackedMesh value : trackedMeshes) {
-                buildTrackedMesh(value);
+            final TrackedMesh[] meshes;
+            synchronized (trackedMeshes) {
+                meshes = trackedMeshes.toArray(new TrackedMesh[0]);
+            }
+            final Builder[] builders = new Builder[meshes.length];
+            if (QuartzConfig.INSTANCE.parallelMeshBuild) {
+                final var futures = new CompletableFuture<?>[meshes.length];
+                for (int i = 0; i < meshes.length; i++) {
+                    // third party build funcs don't go off thread unless they asked to
+                    if (!meshes[i].threadSafeBuild) {
+                        continue;
+                    }
+                    final int index = i;
+                    futures[i] = CompletableFuture.runAsync(() -> builders[index] = meshes[index].capture(), Util.backgroundExecutor());
+                }
+                for (int i = 0; i < futures.length; i++) {
+                    if (futures[i] == null) {
+                        continue;
+                    }
+                    try {
+                        futures[i].join();
+                    } catch (CompletionException e) {
+                        QuartzCore.LOGGER.warn("Quartz mesh build failed off the render thread, retrying on it", e.getCause());
+                    }
+                }
+            }
+            
+            try {
+                QuartzCore.INSTANCE.waitIdle();
+                buildingBatch = true;
+                for (int i = 0; i < meshes.length; i++) {
+                    var builder = builders[i];
+                    builders[i] = null;
+                    if (builder == null) {
+                        builder = meshes[i].capture();
+                        if (builder == null) {
+                            continue;
+                        }
+                    }
+                    meshes[i].upload(builder);
+                }
+            } finally {
+                buildingBatch = false;
+                for (int i = 0; i < shadowedVertices.size(); i++) {
+                    shadowedVertices.get(i).dropShadow();
+                }
+                shadowedVertices.clear();
+                // only non-null if something threw part way through
+                for (final var builder : builders) {
+                    if (builder != null) {
+                        builder.free();
+                    }
+                }
             }
         }
         
@@ -380,7 +743,7 @@ public class InternalMesh implements Mesh {
         }
         
         private void buildTrackedMesh(TrackedMesh trackedMesh) {
-            QuartzCore.INSTANCE.waitIdle();
+            // rebuild waits for idle itself, once the build func is done
             trackedMesh.rebuild();
         }
         
@@ -1,19 +1,22 @@
 package net.roguelogix.quartz.internal.gl33;
 
-import com.mojang.datafixers.util.Pair;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ReferenceArrayList;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.QuartzConfig;
 import net.roguelogix.quartz.internal.Buffer;
+import net.roguelogix.quartz.internal.BufferStatistics;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.util.CallbackDeleter;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.RangeAllocator;
 import org.lwjgl.system.MathUtil;
 
 import javax.annotation.Nullable;
-import java.lang.ref.WeakReference;
-import java.util.Collections;
 import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL33C.*;
@@ -27,35 +30,15 @@ import static org.lwjgl.opengl.GL33C.*;
 public class GL33Buffer implements Buffer {
     
     public class Allocation implements Buffer.Allocation {
-        private record Info(int offset, int size) implements Comparable<Info> {
-            public Info(Info a, Info b) {
-                this(a.offset, a.size + b.size);
-                if (a.offset + a.size != b.offset) {
-                    throw new IllegalStateException("Cannot combine non-consecutive alloc infos");
-                }
-            }
-            
-            @Override
-            public int compareTo(Info info) {
-                return Integer.compare(offset, info.offset);
-            }
-            
-            private Pair<Info, Info> split(int size) {
-                if (size > this.size) {
-                    throw new IllegalArgumentException("Cannot split allocation to larger size");
-                }
-                if (size == this.size) {
-                    return new Pair<>(new Info(this.offset, size), null);
-                }
-                return new Pair<>(new Info(this.offset, size), new Info(this.offset + size, this.size - size));
-            }
+        private record Info(int block, int offset, int size) {
         }
         
         private final Info info;
         @Nullable
         private PointerWrapper cpuAddress;
+        // base the cached address was made from, buffer growth just bumps the buffer's version
+        private int cpuAddressVersion;
         private final boolean[] freed;
-        private final CallbackHandle bufferRealloc;
         private final ReferenceArrayList<Consumer<Buffer.Allocation>> reallocCallbacks;
         
         private Allocation(Info info) {
@@ -64,7 +47,6 @@ public class GL33Buffer implements Buffer {
         
         private Allocation(Allocation allocation, Info info, boolean copyData) {
             this(allocation.reallocCallbacks, info);
-            allocation.bufferRealloc.delete();
             allocation.freed[0] = true;
             if (copyData && allocation.info.offset != info.offset) {
                 allocation.copy(0, this, 0, Math.min(allocation.info.size, info.size));
@@ -76,19 +58,6 @@ public class GL33Buffer implements Buffer {
         
         private Allocation(ReferenceArrayList<Consumer<Buffer.Allocation>> reallocCallbacks, Info info) {
             final var allocator = GL33Buffer.this;
-            final var weakRef = new WeakReference<>(this);
-            final var bufferRealloc = GL33Buffer.this.addReallocCallback(false, e -> {
-                final var ref = weakRef.get();
-                if(ref == null){
-                    return;
-                }
-                ref.cpuAddress = null;
-                for (int i = 0; i < reallocCallbacks.size(); i++) {
-                    final var callback = reallocCallbacks.get(i);
-                    callback.accept(ref);
-                }
-            });
-            
             final var freed = new boolean[]{false};
             final Exception allocationPoint;
             if (QuartzConfig.INSTANCE.debug) {
@@ -97,7 +66,6 @@ public class GL33Buffer implements Buffer {
                 allocationPoint = null;
             }
             QuartzCore.mainThreadClean(this, () -> {
-                bufferRealloc.delete();
                 if (!freed[0]) {
                     freed[0] = true;
                     if (allocationPoint != null) {
@@ -109,13 +77,13 @@ public class GL33Buffer implements Buffer {
             
             this.info = info;
             this.freed = freed;
-            this.bufferRealloc = bufferRealloc;
             this.reallocCallbacks = reallocCallbacks;
         }
         
         @Override
         public PointerWrapper address() {
-            if (cpuAddress == null) {
+            if (cpuAddress == null || cpuAddressVersion != baseVersion) {
+                cpuAddressVersion = baseVersion;
                 if (GPUOnly) {
                     cpuAddress = PointerWrapper.NULLPTR;
                 } else {
@@ -137,7 +105,7 @@ public class GL33Buffer implements Buffer {
         
         @Override
         public void dirtyRange(int offset, int size) {
-            
+            GL33Buffer.this.dirtyRange(info.offset + offset, size);
         }
         
         @Override
@@ -145,6 +113,21 @@ public class GL33Buffer implements Buffer {
             return GL33Buffer.this;
         }
         
+        @Override
+        public void read(int offset, PointerWrapper dst) {
+            if (offset < 0 || offset + dst.size() > info.size) {
+                throw new IllegalArgumentException("Read out of allocation bounds. offset: " + offset + ", size: " + dst.size() + ", allocation size: " + info.size);
+            }
+            if (!GPUOnly) {
+                // CPU copy is always current, flush just uploads it
+                address().copyTo(offset, dst);
+                return;
+            }
+            glBindBuffer(GL_COPY_READ_BUFFER, glBuffer);
+            nglGetBufferSubData(GL_COPY_READ_BUFFER, info.offset + offset, dst.size(), dst.pointer());
+            glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        }
+        
         @Override
         public void copy(int srcOffset, int dstOffset, int size) {
             copy(srcOffset, this, dstOffset, size);
@@ -168,6 +151,7 @@ public class GL33Buffer implements Buffer {
                 glCopy(handle(), srcOffset, dstAllocator.handle(), dstOffset, size);
             } else {
                 address().copyTo(srcOffset, dstAlloc.address(), dstOffset, size);
+                dstAlloc.dirtyRange(dstOffset, size);
             }
         }
         
@@ -226,41 +210,49 @@ public class GL33Buffer implements Buffer {
     // so, its resized as needed
     private final int glBuffer;
     private int size;
+    // bumped whenever the CPU side buffer is reallocated, allocations check this instead of each getting a callback
+    private int baseVersion = 0;
     
     private PointerWrapper cpuBuffer = PointerWrapper.NULLPTR;
     private final PointerWrapper[] cpuBufferArray;
     
     
-    private final ObjectArrayList<Allocation.Info> liveAllocations = new ObjectArrayList<>();
-    private final ObjectArrayList<Allocation.Info> freeAllocations = new ObjectArrayList<>() {
-        @Override
-        public boolean add(@Nullable Allocation.Info allocation) {
-            if (allocation == null) {
-                return false;
-            }
-            int index = Collections.binarySearch(this, allocation);
-            if (index < 0) {
-                index = ~index;
-                super.add(index, allocation);
-            } else {
-                super.set(index, allocation);
-            }
-            return true;
-        }
-    };
+    // block -> info, block handles are unique among live blocks, so this is an O(1) liveness check
+    private final Int2ObjectOpenHashMap<Allocation.Info> liveAllocations = new Int2ObjectOpenHashMap<>();
+    // block -> (generation << 32) | requested size, for handle allocations, which don't have an info or allocation object
+    private final Int2LongOpenHashMap liveHandles = new Int2LongOpenHashMap();
+    // zero is skipped, so NULL_HANDLE is never live
+    private int handleGeneration = 0;
+    private final RangeAllocator rangeAllocator;
+    // trim won't shrink the buffer below this
+    private final int minimumSize;
+    private int liveBytes = 0;
+    private int lowUsageFrames = 0;
+    
+    private final BufferStatistics statistics = new BufferStatistics();
     
     private final ObjectArrayList<Consumer<Buffer>> reallocCallbacks = new ObjectArrayList<>();
     
-    public GL33Buffer(boolean GPUOnly) {
-        this(32768, GPUOnly);
+    // gaps smaller than this get uploaded too, a few extra bytes are cheaper than another call
+    private static final int DIRTY_MERGE_GAP = 1024;
+    // more spans than this after merging, and its just uploaded whole
+    private static final int MAX_UPLOAD_SPANS = 64;
+    // dont let the list grow forever if something dirties a lot without flushing
+    private static final int MAX_DIRTY_RANGES = 4096;
+    // packed (start << 32) | end, sorted and merged at flush
+    private final LongArrayList dirtyRanges = new LongArrayList();
+    private boolean allDirty = false;
+    
+    public GL33Buffer(int options) {
+        this(32768, options);
     }
     
-    public GL33Buffer(int initialSize, boolean GPUOnly) {
-        this(initialSize, true, GPUOnly);
+    public GL33Buffer(int initialSize, int options) {
+        this(initialSize, true, options);
     }
     
-    public GL33Buffer(int initialSize, boolean roundUpPo2, boolean GPUOnly) {
-        this.GPUOnly = GPUOnly;
+    public GL33Buffer(int initialSize, boolean roundUpPo2, int options) {
+        this.GPUOnly = Options.isGPUOnly(options);
         if (roundUpPo2) {
             initialSize = MathUtil.mathRoundPoT(initialSize);
         }
@@ -273,7 +265,9 @@ public class GL33Buffer implements Buffer {
         glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
         cpuBufArray[0] = cpuBuffer = PointerWrapper.alloc(initialSize);
         
-        freeAllocations.add(new Allocation.Info(0, size));
+        rangeAllocator = Options.createRangeAllocator(options, size);
+        minimumSize = size;
+        BufferStatistics.track(this);
         
         QuartzCore.mainThreadClean(this, () -> {
             if (cpuBufArray[0] != null) {
@@ -308,69 +302,25 @@ public class GL33Buffer implements Buffer {
         return new Allocation(allocSpace(size, alignment));
     }
     
-    private Allocation.Info allocSpace(int size, int alignment) {
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            final var attemptedAlloc = attemptAllocInSpace(freeAllocations.get(i), size, alignment);
-            if (attemptedAlloc != null) {
-                freeAllocations.remove(i);
-                return attemptedAlloc;
-            }
-        }
-        
-        int endOffset = this.size;
-        int minSize = this.size + size;
-        if (!freeAllocations.isEmpty()) {
-            var endAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            if (endAlloc.offset + endAlloc.size == this.size) {
-                minSize -= endAlloc.size;
-                endOffset = endAlloc.offset;
+    private int allocBlock(int size, int alignment) {
+        int block = rangeAllocator.alloc(size, alignment);
+        if (block == RangeAllocator.NULL_BLOCK) {
+            expand(rangeAllocator.requiredCapacity(size, alignment));
+            block = rangeAllocator.alloc(size, alignment);
+            if (block == RangeAllocator.NULL_BLOCK) {
+                throw new IllegalStateException("Alloc failed even after expanding buffer");
             }
         }
-        final int nextValidAlignment = (endOffset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - endOffset;
-        minSize += alignmentWaste;
-        
-        expand(minSize);
-        
-        final var attemptedAlloc = attemptAllocInSpace(freeAllocations.pop(), size, alignment);
-        if (attemptedAlloc == null) {
-            throw new IllegalStateException("Alloc failed even after expanding buffer");
-        }
-        return attemptedAlloc;
-    }
-    
-    @Nullable
-    private Allocation.Info attemptAllocInSpace(Allocation.Info freeAlloc, int size, int alignment) {
-        // next value guaranteed to be at *most* one less than the next alignment, then bit magic because powers of two to round down without a divide
-        final int nextValidAlignment = (freeAlloc.offset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - freeAlloc.offset;
-        if (freeAlloc.size - alignmentWaste < size) {
-            // wont fit, *neeeeeeeeeeeext*
-            return null;
-        }
-        boolean collapse = false;
-        if (alignmentWaste > 0) {
-            final var newAllocs = freeAlloc.split(alignmentWaste);
-            // not concurrent modification because this will always return
-            freeAllocations.add(newAllocs.getFirst());
-            freeAlloc = newAllocs.getSecond();
-            
-            int index = freeAllocations.indexOf(newAllocs.getFirst());
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-        }
-        if (freeAlloc.size > size) {
-            final var newAllocs = freeAlloc.split(size);
-            // not concurrent modification because this will always return
-            freeAlloc = newAllocs.getFirst();
-            freeAllocations.add(newAllocs.getSecond());
-            int index = freeAllocations.indexOf(newAllocs.getSecond());
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-        }
-        
-        liveAllocations.add(freeAlloc);
-        return freeAlloc;
+        return block;
+    }
+    
+    private Allocation.Info allocSpace(int size, int alignment) {
+        statistics.allocs++;
+        final int block = allocBlock(size, alignment);
+        final var info = new Allocation.Info(block, rangeAllocator.offset(block), size);
+        liveAllocations.put(block, info);
+        liveBytes += size;
+        return info;
     }
     
     @Override
@@ -390,86 +340,36 @@ public class GL33Buffer implements Buffer {
             throw new IllegalArgumentException("Cannot realloc allocation from another buffer");
         }
         
-        var liveIndex = liveAllocations.indexOf(allocation.info);
-        if (liveIndex == -1) {
+        // identity, a stale allocation object can have an equal info to a live one
+        if (liveAllocations.get(allocation.info.block) != allocation.info) {
             throw new IllegalArgumentException("Cannot realloc non-live allocation");
         }
+        statistics.reallocs++;
         
-        if (newSize <= allocation.info.size && (allocation.info.offset & (alignment - 1)) == 0) {
-            // this allocation already meets size and alignment requirements
-            if (newSize == allocation.info.size) {
+        final var info = allocation.info;
+        if ((info.offset & (alignment - 1)) == 0) {
+            // this allocation already meets alignment requirements, attempt to resize it in place
+            if (newSize == info.size) {
                 return allocation;
             }
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
-            }
-            var newAllocInfos = allocation.info.split(newSize);
-            var newAllocInfo = newAllocInfos.getFirst();
-            var freeAllocInfo = newAllocInfos.getSecond();
-            freeAllocations.add(freeAllocInfo);
-            int index = freeAllocations.indexOf(freeAllocInfo);
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-            liveAllocations.add(newAllocInfo);
-            return new Allocation(allocation, newAllocInfo, copyData);
-        }
-        
-        Allocation.Info precedingAlloc = null;
-        Allocation.Info followingAlloc = null;
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            var freeAllocation = freeAllocations.get(i);
-            if (freeAllocation.offset + freeAllocation.size == allocation.info.offset) {
-                precedingAlloc = freeAllocation;
-                continue;
-            }
-            if (freeAllocation.offset == allocation.info.offset + allocation.info.size) {
-                followingAlloc = freeAllocation;
-                break;
-            }
-            if (freeAllocation.offset > allocation.info.offset) {
-                break;
-            }
-        }
-        int fullBlockOffset = precedingAlloc == null ? allocation.info.offset : precedingAlloc.offset;
-        final int nextValidAlignment = (fullBlockOffset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - fullBlockOffset;
-        int fullBlockSize = allocation.info.size;
-        if (precedingAlloc != null) {
-            fullBlockSize += precedingAlloc.size;
-        }
-        if (followingAlloc != null) {
-            fullBlockSize += followingAlloc.size;
-        } else if (allocation.info.offset + allocation.info.size == size) {
-            // end allocation, so I can resize it to whatever is needed
-            freeAllocations.remove(precedingAlloc);
-            int minSize = fullBlockOffset + alignmentWaste + newSize;
-            expand(minSize);
-            followingAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            fullBlockSize += followingAlloc.size;
-        }
-        
-        if (fullBlockSize - alignmentWaste >= newSize) {
-            // ok, available memory exists around where the data currently is
-            freeAllocations.remove(precedingAlloc);
-            freeAllocations.remove(followingAlloc);
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
+            boolean resized = rangeAllocator.resize(info.block, newSize);
+            if (!resized && rangeAllocator.isAtEnd(info.block)) {
+                // end allocation, so I can resize it to whatever is needed
+                expand(info.offset + newSize);
+                resized = rangeAllocator.resize(info.block, newSize);
             }
-            
-            var newAllocInfo = attemptAllocInSpace(new Allocation.Info(fullBlockOffset, fullBlockSize), newSize, alignment);
-            if (newAllocInfo == null) {
-                throw new IllegalStateException("Realloc failed in guaranteed space");
+            if (resized) {
+                final var newAllocInfo = new Allocation.Info(info.block, info.offset, newSize);
+                liveAllocations.put(info.block, newAllocInfo);
+                liveBytes += newSize - info.size;
+                return new Allocation(allocation, newAllocInfo, copyData);
             }
-            return new Allocation(allocation, newAllocInfo, copyData);
         }
         
         free(allocation);
         return new Allocation(allocation, allocSpace(newSize, alignment), copyData);
     }
     
-    
     @Override
     public void free(Buffer.Allocation allocation) {
         if (allocation instanceof Allocation alloc) {
@@ -478,7 +378,6 @@ public class GL33Buffer implements Buffer {
     }
     
     public void free(Allocation allocation) {
-        allocation.bufferRealloc.delete();
         if (!allocation.freed[0]) {
             allocation.freed[0] = true;
             free(allocation.info);
@@ -486,29 +385,161 @@ public class GL33Buffer implements Buffer {
     }
     
     private void free(Allocation.Info allocation) {
-        var index = liveAllocations.indexOf(allocation);
-        if (index == -1) {
+        if (liveAllocations.get(allocation.block) != allocation) {
             return;
         }
-        var removed = liveAllocations.pop();
-        if (index != liveAllocations.size()) {
-            liveAllocations.set(index, removed);
+        liveAllocations.remove(allocation.block);
+        liveBytes -= allocation.size;
+        rangeAllocator.free(allocation.block);
+        statistics.frees++;
+    }
+    
+    @Override
+    public long allocHandle(int size, int alignment) {
+        statistics.allocs++;
+        final int block = allocBlock(size, alignment);
+        if (++handleGeneration == 0) {
+            handleGeneration = 1;
+        }
+        final long generation = (long) handleGeneration << 32;
+        liveHandles.put(block, generation | size);
+        liveBytes += size;
+        return generation | block;
+    }
+    
+    @Override
+    public void freeHandle(long handle) {
+        if (!isHandleLive(handle)) {
+            return;
         }
-        freeAllocations.add(allocation);
-        index = freeAllocations.indexOf(allocation);
-        collapseFreeAllocationWithNext(index - 1);
-        collapseFreeAllocationWithNext(index);
+        final int block = (int) handle;
+        liveBytes -= (int) liveHandles.remove(block);
+        rangeAllocator.free(block);
+        statistics.frees++;
+    }
+    
+    @Override
+    public boolean isHandleLive(long handle) {
+        // missing blocks return 0, which never matches a generation
+        return handle != NULL_HANDLE && (liveHandles.get((int) handle) >>> 32) == (handle >>> 32);
+    }
+    
+    private long liveHandleEntry(long handle) {
+        final long entry = liveHandles.get((int) handle);
+        if (handle == NULL_HANDLE || (entry >>> 32) != (handle >>> 32)) {
+            throw new IllegalArgumentException("Stale or foreign buffer handle");
+        }
+        return entry;
+    }
+    
+    @Override
+    public int handleOffset(long handle) {
+        liveHandleEntry(handle);
+        return rangeAllocator.offset((int) handle);
+    }
+    
+    @Override
+    public int handleSize(long handle) {
+        return (int) liveHandleEntry(handle);
+    }
+    
+    @Override
+    public PointerWrapper handleAddress(long handle) {
+        final long entry = liveHandleEntry(handle);
+        if (GPUOnly) {
+            return PointerWrapper.NULLPTR;
+        }
+        final int block = (int) handle;
+        return cpuBuffer.slice(rangeAllocator.offset(block), (int) entry);
+    }
+    
+    @Override
+    public void dirtyHandleRange(long handle, int offset, int size) {
+        dirtyRange(handleOffset(handle) + offset, size);
+    }
+    
+    @Override
+    public BufferStatistics statistics() {
+        statistics.capacity = size;
+        statistics.liveBytes = liveBytes;
+        statistics.liveAllocations = liveAllocations.size() + liveHandles.size();
+        statistics.freeBytes = rangeAllocator.freeBytes();
+        statistics.largestFreeBlock = rangeAllocator.largestFreeBlock();
+        return statistics;
+    }
+    
+    private void dirtyRange(int offset, int size) {
+        if (allDirty || GPUOnly || size <= 0) {
+            return;
+        }
+        if (dirtyRanges.size() >= MAX_DIRTY_RANGES) {
+            dirtyAll();
+            return;
+        }
+        dirtyRanges.add(((long) offset << 32) | (offset + size));
+    }
+    
+    @Override
+    public boolean cpuReadable() {
+        return !GPUOnly;
     }
     
     @Override
     public void dirtyAll() {
-        
+        if (GPUOnly) {
+            return;
+        }
+        allDirty = true;
+        dirtyRanges.clear();
     }
     
+    /**
+     * Uploads dirty ranges of the CPU buffer
+     * ranges are merged first, and if there are still too many of them, the whole buffer is uploaded in one go
+     */
     public void flush() {
+        if (!allDirty && dirtyRanges.isEmpty()) {
+            return;
+        }
+        if (!allDirty) {
+            mergeDirtyRanges();
+            allDirty = dirtyRanges.size() > MAX_UPLOAD_SPANS;
+        }
         glBindBuffer(GL_COPY_WRITE_BUFFER, glBuffer);
-        nglBufferSubData(GL_COPY_WRITE_BUFFER, 0, cpuBuffer.size(), cpuBuffer.pointer());
+        if (allDirty) {
+            nglBufferSubData(GL_COPY_WRITE_BUFFER, 0, cpuBuffer.size(), cpuBuffer.pointer());
+        } else {
+            for (int i = 0; i < dirtyRanges.size(); i++) {
+                final long range = dirtyRanges.getLong(i);
+                final int start = (int) (range >>> 32);
+                final int end = Math.min((int) range, size);
+                if (end > start) {
+                    nglBufferSubData(GL_COPY_WRITE_BUFFER, start, end - start, cpuBuffer.pointer() + start);
+                }
+            }
+        }
         glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        dirtyRanges.clear();
+        allDirty = false;
+    }
+    
+    private void mergeDirtyRanges() {
+        // packed with start in the high bits, so this sorts by start
+        LongArrays.unstableSort(dirtyRanges.elements(), 0, dirtyRanges.size());
+        int merged = 0;
+        long current = dirtyRanges.getLong(0);
+        for (int i = 1; i < dirtyRanges.size(); i++) {
+            final long next = dirtyRanges.getLong(i);
+            final int currentEnd = (int) current;
+            if ((int) (next >>> 32) <= currentEnd + DIRTY_MERGE_GAP) {
+                current = (current & 0xFFFFFFFF00000000L) | Math.max(currentEnd, (int) next);
+            } else {
+                dirtyRanges.set(merged++, current);
+                current = next;
+            }
+        }
+        dirtyRanges.set(merged++, current);
+        dirtyRanges.size(merged);
     }
     
     @Override
@@ -526,12 +557,46 @@ public class GL33Buffer implements Buffer {
             return;
         }
         
-        int oldSize = size;
         int newSize = Integer.highestOneBit(minSize);
         if (newSize < minSize) {
             newSize <<= 1;
         }
         
+        statistics.expands++;
+        statistics.resizeBytesCopied += size;
+        resize(newSize);
+        
+        rangeAllocator.grow(newSize);
+        
+        statistics.reallocCallbacks += reallocCallbacks.size();
+        reallocCallbacks.forEach(c -> c.accept(this));
+    }
+    
+    @Override
+    public void trim() {
+        final var trimOptions = QuartzConfig.INSTANCE.bufferTrim;
+        if (liveBytes >= size * trimOptions.trimFraction) {
+            lowUsageFrames = 0;
+            return;
+        }
+        if (++lowUsageFrames < trimOptions.trimFrames) {
+            return;
+        }
+        // if the end of the buffer is still in use this fails, try again after another round
+        lowUsageFrames = 0;
+        final int newSize = MathUtil.mathRoundPoT(Math.max(rangeAllocator.trailingFreeOffset(), minimumSize));
+        if (newSize >= size || !rangeAllocator.shrink(newSize)) {
+            return;
+        }
+        statistics.trims++;
+        statistics.resizeBytesCopied += newSize;
+        resize(newSize);
+        
+        statistics.reallocCallbacks += reallocCallbacks.size();
+        reallocCallbacks.forEach(c -> c.accept(this));
+    }
+    
+    private void resize(int newSize) {
         cpuBufferArray[0] = cpuBuffer = cpuBuffer.realloc(newSize);
         
         // using GL_COPY_WRITE, because mojang doesnt touch it
@@ -539,29 +604,11 @@ public class GL33Buffer implements Buffer {
         // usage hints are *probably* ignored by the driver, so static draw it is!
         nglBufferData(GL_COPY_WRITE_BUFFER, cpuBuffer.size(), cpuBuffer.pointer(), GL_STATIC_DRAW);
         glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        // everything was just uploaded
+        dirtyRanges.clear();
+        allDirty = false;
         
         size = newSize;
-        
-        freeAllocations.add(new Allocation.Info(oldSize, newSize - oldSize));
-        
-        collapseFreeAllocationWithNext(freeAllocations.size() - 2);
-        
-        reallocCallbacks.forEach(c -> c.accept(this));
-    }
-    
-    private boolean collapseFreeAllocationWithNext(int freeAllocationIndex) {
-        if (freeAllocationIndex < 0 || freeAllocationIndex >= freeAllocations.size() - 1) {
-            return false;
-        }
-        var allocA = freeAllocations.get(freeAllocationIndex);
-        var allocB = freeAllocations.get(freeAllocationIndex + 1);
-        if (allocA.offset + allocA.size == allocB.offset) {
-            // neighboring allocations, collapse them
-            freeAllocations.remove(freeAllocationIndex + 1);
-            freeAllocations.remove(freeAllocationIndex);
-            freeAllocations.add(new Allocation.Info(allocA.offset, allocA.size + allocB.size));
-            return true;
-        }
-        return false;
+        baseVersion++;
     }
 }
@@ -13,9 +13,11 @@ import net.minecraft.client.renderer.RenderType;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.DrawBatch;
 import net.roguelogix.quartz.internal.Buffer;
+import net.roguelogix.quartz.internal.BufferStatistics;
 import net.roguelogix.quartz.internal.IrisDetection;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.DrawInfo;
+import net.roguelogix.quartz.internal.util.NativeMemoryPool;
 import org.joml.Matrix4f;
 import org.joml.Vector3d;
 import org.lwjgl.opengl.GL;
@@ -86,6 +88,7 @@ public class GL33Core extends QuartzCore {
         GL33FeedbackPrograms.shutdown();
         GL33ComputePrograms.shutdown();
         BrokenMacDriverWorkaroundFragmentShader.shutdown();
+        NativeMemoryPool.releasePooled();
     }
     
     @Override
@@ -100,12 +103,13 @@ public class GL33Core extends QuartzCore {
     
     @Override
     public Buffer allocBuffer(int options) {
-        return new GL33Buffer(Buffer.Options.isGPUOnly(options));
+        return new GL33Buffer(options);
     }
     
     @Override
     public void frameStart(PoseStack pMatrixStack, float pPartialTicks, long pFinishTimeNano, boolean pDrawBlockOutline, Camera pActiveRenderInfo, GameRenderer pGameRenderer, LightTexture pLightmap, Matrix4f pProjection) {
             deletionQueue.runAll();
+        NativeMemoryPool.reclaimDeadThreadCaches();
         
         long timeNanos = System.nanoTime();
         long deltaNano = timeNanos - lastTimeNano;
@@ -133,6 +137,7 @@ public class GL33Core extends QuartzCore {
         
         GL33FeedbackDrawing.beginFrame();
         
+        meshManager.vertexBuffer.trim();
         meshManager.vertexBuffer.as(GL33Buffer.class).flush();
     }
     
@@ -228,5 +233,8 @@ public class GL33Core extends QuartzCore {
     @Override
     public void addDebugText(List<String> list) {
         list.add("Quartz backend: OpenGL 3.3");
+        BufferStatistics.addDebugText(list);
+        NativeMemoryPool.addDebugText(list);
+        meshManager.addDebugText(list);
     }
 }
@@ -8,6 +8,7 @@ import net.roguelogix.quartz.internal.Buffer;
 import net.roguelogix.quartz.internal.IrisDetection;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.B3DStateHelper;
+import net.roguelogix.quartz.internal.common.InternalMesh;
 import net.roguelogix.quartz.internal.gl33.batching.GL33DrawBatch;
 import net.roguelogix.quartz.internal.gl46.GL46FeedbackDrawing;
 import net.roguelogix.quartz.internal.util.VertexFormatOutput;
@@ -87,12 +88,19 @@ public class GL33FeedbackDrawing {
         glEnableVertexAttribArray(GL33Statics.POSITION_LOCATION);
         glEnableVertexAttribArray(GL33Statics.COLOR_LOCATION);
         glEnableVertexAttribArray(GL33Statics.TEX_COORD_LOCATION);
-        glEnableVertexAttribArray(GL33Statics.NORMAL_LOCATION);
         
-        glVertexAttribPointer(GL33Statics.POSITION_LOCATION, 3, GL_FLOAT, false, 32, 0);
-        glVertexAttribIPointer(GL33Statics.COLOR_LOCATION, 1, GL_INT, 32, 12);
-        glVertexAttribPointer(GL33Statics.TEX_COORD_LOCATION, 2, GL_FLOAT, false, 32, 16);
-        glVertexAttribPointer(GL33Statics.NORMAL_LOCATION, 3, GL_SHORT, true, 32, 24);
+        if (InternalMesh.COMPACT_VERTICES) {
+            // compact normals are packed in with the position
+            glVertexAttribIPointer(GL33Statics.POSITION_LOCATION, 4, GL_SHORT, 16, 0);
+            glVertexAttribIPointer(GL33Statics.COLOR_LOCATION, 1, GL_INT, 16, 8);
+            glVertexAttribPointer(GL33Statics.TEX_COORD_LOCATION, 2, GL_UNSIGNED_SHORT, true, 16, 12);
+        } else {
+            glEnableVertexAttribArray(GL33Statics.NORMAL_LOCATION);
+            glVertexAttribPointer(GL33Statics.POSITION_LOCATION, 3, GL_FLOAT, false, 32, 0);
+            glVertexAttribIPointer(GL33Statics.COLOR_LOCATION, 1, GL_INT, 32, 12);
+            glVertexAttribPointer(GL33Statics.TEX_COORD_LOCATION, 2, GL_FLOAT, false, 32, 16);
+            glVertexAttribPointer(GL33Statics.NORMAL_LOCATION, 3, GL_SHORT, true, 32, 24);
+        }
         
         // instance data
         B3DStateHelper.bindArrayBuffer(instanceDataBuffer);
@@ -176,7 +184,7 @@ public class GL33FeedbackDrawing {
     }
     
     
-    private static final GL33Buffer UBOBuffer = new GL33Buffer(false);
+    private static final GL33Buffer UBOBuffer = new GL33Buffer(Buffer.Options.LINEAR_ALLOCATOR);
     private static final Buffer.Allocation UBOAllocation = UBOBuffer.alloc(64);
     
     public static void beginFrame() {
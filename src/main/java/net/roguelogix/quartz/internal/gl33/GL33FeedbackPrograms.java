@@ -8,6 +8,8 @@ import it.unimi.dsi.fastutil.objects.*;
 import net.minecraft.resources.ResourceLocation;
 import net.roguelogix.phosphophyllite.util.Util;
 import net.roguelogix.quartz.Quartz;
+import net.roguelogix.quartz.internal.MagicNumbers;
+import net.roguelogix.quartz.internal.common.InternalMesh;
 import net.roguelogix.quartz.internal.util.VertexFormatOutput;
 
 import java.util.function.BiConsumer;
@@ -46,6 +48,10 @@ public class GL33FeedbackPrograms {
         prependBuilder.append("#define COLOR_LOCATION " + GL33Statics.COLOR_LOCATION + "\n");
         prependBuilder.append("#define TEX_COORD_LOCATION " + GL33Statics.TEX_COORD_LOCATION + "\n");
         prependBuilder.append("#define NORMAL_LOCATION " + GL33Statics.NORMAL_LOCATION + "\n");
+        if (InternalMesh.COMPACT_VERTICES) {
+            prependBuilder.append("#define COMPACT_VERTICES\n");
+            prependBuilder.append("#define COMPACT_VERTEX_EXPONENT_BIAS " + MagicNumbers.COMPACT_VERTEX_EXPONENT_BIAS + "\n");
+        }
         
         prependBuilder.append("#define WORLD_POSITION_LOCATION " + GL33Statics.WORLD_POSITION_LOCATION + "\n");
         prependBuilder.append("#define DYNAMIC_MATRIX_ID_LOCATION " + GL33Statics.DYNAMIC_MATRIX_ID_LOCATION + "\n");
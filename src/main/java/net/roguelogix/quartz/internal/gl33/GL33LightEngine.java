@@ -11,6 +11,7 @@ import net.minecraft.world.level.BlockAndTintGetter;
 import net.minecraft.world.level.LightLayer;
 import net.roguelogix.phosphophyllite.util.FastArraySet;
 import net.roguelogix.phosphophyllite.util.VectorUtil;
+import net.roguelogix.quartz.internal.Buffer;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.B3DStateHelper;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
@@ -47,10 +48,10 @@ public class GL33LightEngine {
     
     private static PointerWrapper lookupData = PointerWrapper.alloc(64 * 64 * 24 * 2);
     private static Vector3i lookupOffset = new Vector3i();
-    private static GL33Buffer lookupBuffer = new GL33Buffer(64 * 64 * 24 * 2, true);
+    private static GL33Buffer lookupBuffer = new GL33Buffer(64 * 64 * 24 * 2, Buffer.Options.GPU_ONLY);
     private static int lookupTexture;
     
-    private static GL33Buffer unpackBuffer = new GL33Buffer(CHUNK_UPDATES_PER_FRAME * 18 * 320 * 6 * 2, true);
+    private static GL33Buffer unpackBuffer = new GL33Buffer(CHUNK_UPDATES_PER_FRAME * 18 * 320 * 6 * 2, Buffer.Options.GPU_ONLY);
     
     private static GL33Buffer.Allocation[] unpackBufferAllocs = new GL33Buffer.Allocation[CHUNK_UPDATES_PER_FRAME];
     
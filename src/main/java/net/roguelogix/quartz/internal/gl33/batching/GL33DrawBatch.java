@@ -8,6 +8,7 @@ import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.AABB;
 import net.roguelogix.quartz.DynamicMatrix;
 import net.roguelogix.quartz.Mesh;
+import net.roguelogix.quartz.internal.Buffer;
 import net.roguelogix.quartz.internal.DrawBatchInternal;
 import net.roguelogix.quartz.internal.IrisDetection;
 import net.roguelogix.quartz.internal.MultiBuffer;
@@ -42,14 +43,14 @@ public class GL33DrawBatch implements DrawBatchInternal {
     private Vector4f cullVectorMin = new Vector4f();
     private Vector4f cullVectorMax = new Vector4f();
     
-    final GL33Buffer instanceDataBuffer = new GL33Buffer(false);
-    final GL33Buffer intermediateInstanceDataBuffer = new GL33Buffer(true);
+    final GL33Buffer instanceDataBuffer = new GL33Buffer(0);
+    final GL33Buffer intermediateInstanceDataBuffer = new GL33Buffer(Buffer.Options.GPU_ONLY);
     
     final Reference2ReferenceMap<InternalMesh, GL33InstanceManager> instanceManagers = new Reference2ReferenceOpenHashMap<>();
     final ReferenceSet<GL33InstanceManager> instanceBatches = new ReferenceOpenHashSet<>();
     final FastArraySet<GL33InstanceManager> dirtyBatches = new FastArraySet<>();
     
-    final MultiBuffer<GL33Buffer> dynamicMatrixBuffer = new MultiBuffer<>(1, 0);
+    final MultiBuffer<GL33Buffer> dynamicMatrixBuffer = new MultiBuffer<>(true, 1, Buffer.Options.BUDDY_ALLOCATOR);
     
     final DynamicMatrixManager dynamicMatrixManager = new DynamicMatrixManager(dynamicMatrixBuffer);
     final int dynamicMatrixTexture;
@@ -236,6 +237,7 @@ public class GL33DrawBatch implements DrawBatchInternal {
             dirtyBatches.clear();
             instanceDataBuffer.flush();
         }
+        instanceDataBuffer.trim();
         
         if (!enabled) {
             return;
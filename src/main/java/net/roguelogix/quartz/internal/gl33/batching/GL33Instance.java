@@ -5,6 +5,7 @@ import net.roguelogix.quartz.DrawBatch;
 import net.roguelogix.quartz.DynamicMatrix;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.DynamicMatrixManager;
+import net.roguelogix.quartz.internal.util.PointerWriter;
 import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
@@ -57,7 +58,7 @@ public class GL33Instance implements DrawBatch.Instance {
     }
     
     void write() {
-        final var instanceGPUMemory = manager.instanceDataAlloc.address().slice((long) location.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
+        final var instanceGPUMemory = PointerWriter.of(manager.instanceDataAlloc.address(), (long) location.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
         manager.instanceDataAlloc.dirtyRange(location.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
         
         // TODO: dont need to write the entire instance data if only one things changed
@@ -65,7 +66,7 @@ public class GL33Instance implements DrawBatch.Instance {
         instanceGPUMemory.putMatrix3x4f(STATIC_NORMAL_MATRIX_OFFSET, normalMatrix);
         // these "overlap" because the normal matrix is only a mat3, so the last column is unused, and thus i can fit this info into it
         instanceGPUMemory.putVector3i(WORLD_POSITION_OFFSET, position);
-        instanceGPUMemory.putInt(DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id(0));
+        instanceGPUMemory.putInt(DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id());
     }
     
     @Override
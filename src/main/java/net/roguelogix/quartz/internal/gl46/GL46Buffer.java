@@ -1,20 +1,29 @@
 package net.roguelogix.quartz.internal.gl46;
 
-import com.mojang.datafixers.util.Pair;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import net.minecraft.client.Minecraft;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.QuartzConfig;
 import net.roguelogix.quartz.internal.Buffer;
+import net.roguelogix.quartz.internal.BufferStatistics;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.util.CallbackDeleter;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.RangeAllocator;
 import org.lwjgl.system.MathUtil;
 
 
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL45C.*;
@@ -24,35 +33,18 @@ public class GL46Buffer implements Buffer {
     
     public class Allocation implements Buffer.Allocation {
         
-        private record Info(int offset, int size) implements Comparable<Info> {
-            public Info(Info a, Info b) {
-                this(a.offset, a.size + b.size);
-                if (a.offset + a.size != b.offset) {
-                    throw new IllegalStateException("Cannot combine non-consecutive alloc infos");
-                }
-            }
-            
-            @Override
-            public int compareTo(Info info) {
-                return Integer.compare(offset, info.offset);
-            }
-            
-            private Pair<Info, Info> split(int size) {
-                if (size > this.size) {
-                    throw new IllegalArgumentException("Cannot split allocation to larger size");
-                }
-                if (size == this.size) {
-                    return new Pair<>(new Info(this.offset, size), null);
-                }
-                return new Pair<>(new Info(this.offset, size), new Info(this.offset + size, this.size - size));
-            }
+        private record Info(int block, int offset, int size, int alignment) {
         }
         
-        private final Info info;
+        // not final, compaction can move an allocation without replacing the object
+        private Info info;
+        // shared with the cleaner, so it frees wherever the allocation currently is
+        private final Info[] cleanerInfo;
         @Nullable
         private PointerWrapper cpuAddress;
+        // base the cached address was made from, buffer growth just bumps the buffer's version
+        private int cpuAddressVersion;
         private final boolean[] freed;
-        private final CallbackHandle bufferRealloc;
         private final ObjectArrayList<Consumer<Buffer.Allocation>> reallocCallbacks;
         
         private Allocation(Info info) {
@@ -61,7 +53,6 @@ public class GL46Buffer implements Buffer {
         
         private Allocation(Allocation allocation, Info info, boolean copyData) {
             this(allocation.reallocCallbacks, info);
-            allocation.bufferRealloc.delete();
             allocation.freed[0] = true;
             if (copyData && allocation.info.offset != info.offset) {
                 allocation.copy(0, this, 0, Math.min(allocation.info.size, info.size));
@@ -74,18 +65,8 @@ public class GL46Buffer implements Buffer {
         private Allocation(ObjectArrayList<Consumer<Buffer.Allocation>> reallocCallbacks, Info info) {
             final var allocator = GL46Buffer.this;
             final var weakRef = new WeakReference<>(this);
-            final var bufferRealloc = GL46Buffer.this.addReallocCallback(false, e -> {
-                final var ref = weakRef.get();
-                if (ref == null) {
-                    return;
-                }
-                ref.cpuAddress = null;
-                for (int i = 0; i < reallocCallbacks.size(); i++) {
-                    final var callback = reallocCallbacks.get(i);
-                    callback.accept(ref);
-                }
-            });
             final var freed = new boolean[]{false};
+            final var cleanerInfo = new Info[]{info};
             final Exception allocationPoint;
             if (QuartzConfig.INSTANCE.debug) {
                 allocationPoint = new Exception();
@@ -93,29 +74,36 @@ public class GL46Buffer implements Buffer {
                 allocationPoint = null;
             }
             QuartzCore.mainThreadClean(this, () -> {
-                bufferRealloc.delete();
                 if (!freed[0]) {
                     freed[0] = true;
-                    // this is the only way i can guarantee that this memory wont be overwritten while in flight
-                    // yes this is a very heavy handed way to do this, *free the shit manually*
-                    glFinish();
+                    // retired like any other free, so no need to wait on the GPU here
+                    // still, *free the shit manually*
                     if (allocationPoint != null) {
                         allocationPoint.printStackTrace();
                     }
-                    allocator.free(info);
+                    allocator.free(cleanerInfo[0]);
                 }
             });
             
             this.info = info;
+            this.cleanerInfo = cleanerInfo;
+            allocationRefs.put(info.block, weakRef);
             
             this.freed = freed;
-            this.bufferRealloc = bufferRealloc;
             this.reallocCallbacks = reallocCallbacks;
         }
         
         @Override
         public PointerWrapper address() {
-            if (cpuAddress == null) {
+            if (redirecting()) {
+                final long address = writeAddress(info.block, info.offset, info.size);
+                if (address != mappedMemory + info.offset) {
+                    // not cached, it goes back to the mapping once the copy is done
+                    return new PointerWrapper(address, info.size);
+                }
+            }
+            if (cpuAddress == null || cpuAddressVersion != baseVersion) {
+                cpuAddressVersion = baseVersion;
                 if (GPUOnly) {
                     cpuAddress = PointerWrapper.NULLPTR;
                 } else {
@@ -145,6 +133,20 @@ public class GL46Buffer implements Buffer {
             return GL46Buffer.this;
         }
         
+        @Override
+        public void read(int offset, PointerWrapper dst) {
+            if (offset < 0 || offset + dst.size() > info.size) {
+                throw new IllegalArgumentException("Read out of allocation bounds. offset: " + offset + ", size: " + dst.size() + ", allocation size: " + info.size);
+            }
+            if (CPUMem) {
+                address().copyTo(offset, dst);
+                return;
+            }
+            // the mapping isn't readable, coherent writes are visible to the readback, and it waits on any pending copy itself
+            flushRedirects();
+            nglGetNamedBufferSubData(glBuffer, info.offset + offset, dst.size(), dst.pointer());
+        }
+        
         @Override
         public void copy(int srcOffset, int dstOffset, int size) {
             copy(srcOffset, this, dstOffset, size);
@@ -203,30 +205,94 @@ public class GL46Buffer implements Buffer {
         }
     }
     
+    /**
+     * A replaced GL buffer, kept mapped while writes are still redirected to it
+     */
+    private static final class Generation {
+        private final int glBuffer;
+        private final long mappedMemory;
+        private final int size;
+        private int redirects = 0;
+        
+        private Generation(int glBuffer, long mappedMemory, int size) {
+            this.glBuffer = glBuffer;
+            this.mappedMemory = mappedMemory;
+            this.size = size;
+        }
+        
+        private void delete() {
+            PointerWrapper.removeAccessibleLocation(new PointerWrapper(mappedMemory, size));
+            glUnmapNamedBuffer(glBuffer);
+            glDeleteBuffers(glBuffer);
+        }
+    }
+    
+    /**
+     * Writes to a block a GPU copy may still be landing in, they go to sourceOffset in source (this buffer if null), and flushRedirects copies them to offset
+     */
+    private static final class RedirectedWrite {
+        @Nullable
+        private Generation source;
+        private final int sourceOffset;
+        private final int offset;
+        private final int size;
+        // block moved from by compaction, retired once this is done
+        private int sourceBlock;
+        // written since the last flush
+        private boolean dirty = false;
+        private long flushedFrame = -1;
+        
+        private RedirectedWrite(@Nullable Generation source, int sourceOffset, int offset, int size, int sourceBlock) {
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.offset = offset;
+            this.size = size;
+            this.sourceBlock = sourceBlock;
+        }
+    }
+    
     private final boolean GPUOnly;
     private final boolean CPUMem;
+    // compaction won't shrink the buffer below this
+    private final int minimumSize;
+    private int liveBytes = 0;
+    private int lowUsageFrames = 0;
     private int glBuffer = 0;
     private final int[] glBufferArray = new int[1];
     private long mappedMemory;
     private int size;
+    // bumped whenever the backing buffer/mapping is replaced, allocations check this instead of each getting a callback
+    private int baseVersion = 0;
+    // fence after the last GPU copy into this buffer (growth, trim, or compaction), the CPU can't write over a copy's destination until it signals
+    // instead of waiting, writes go to the copy's source, and are copied over after it on the GPU, see writeAddress
+    // only set for mapped GPU memory, CPU memory is copied on the CPU, and nothing on the CPU writes GPU only memory
+    private long copyFence = 0;
+    // growth/trim, the replaced buffer, live blocks are copied out of it at the same offsets
+    @Nullable
+    private Generation copySource;
+    private final IntOpenHashSet copiedBlocks = new IntOpenHashSet();
+    // compaction, block -> block it was moved from, the old block isn't retired until nothing is redirected to it
+    private final Int2IntOpenHashMap movedFrom = new Int2IntOpenHashMap();
+    // block -> where its writes currently go
+    private final Int2ObjectOpenHashMap<RedirectedWrite> redirectedWrites = new Int2ObjectOpenHashMap<>();
+    // buffers with copies or redirects pending, strongly held so they can't be cleaned up with an old buffer still alive
+    private static final ReferenceOpenHashSet<GL46Buffer> redirectingBuffers = new ReferenceOpenHashSet<>();
     
-    private final ObjectArrayList<Allocation.Info> liveAllocations = new ObjectArrayList<>();
-    private final ObjectArrayList<Allocation.Info> freeAllocations = new ObjectArrayList<>() {
-        @Override
-        public boolean add(@Nullable Allocation.Info allocation) {
-            if (allocation == null) {
-                return false;
-            }
-            int index = Collections.binarySearch(this, allocation);
-            if (index < 0) {
-                index = ~index;
-                super.add(index, allocation);
-            } else {
-                super.set(index, allocation);
-            }
-            return true;
-        }
-    };
+    // block -> info, block handles are unique among live blocks, so this is an O(1) liveness check
+    private final Int2ObjectOpenHashMap<Allocation.Info> liveAllocations = new Int2ObjectOpenHashMap<>();
+    // block -> allocation object currently using it, compaction needs to find the owner of a block
+    private final Int2ObjectOpenHashMap<WeakReference<Allocation>> allocationRefs = new Int2ObjectOpenHashMap<>();
+    // block -> (generation << 32) | requested size, for handle allocations, which don't have an info or allocation object
+    private final Int2LongOpenHashMap liveHandles = new Int2LongOpenHashMap();
+    // zero is skipped, so NULL_HANDLE is never live
+    private int handleGeneration = 0;
+    private final RangeAllocator rangeAllocator;
+    // freed blocks may still be in use by the GPU, they are only returned to the allocator once the frame they were freed in has completed
+    private final IntArrayFIFOQueue retiredBlocks = new IntArrayFIFOQueue();
+    private final LongArrayFIFOQueue retiredFrames = new LongArrayFIFOQueue();
+    private int retiredBytes = 0;
+    
+    private final BufferStatistics statistics = new BufferStatistics();
     
     private final ObjectArrayList<Consumer<Buffer>> reallocCallbacks = new ObjectArrayList<>();
     
@@ -244,8 +310,10 @@ public class GL46Buffer implements Buffer {
         if (roundUpPo2) {
             initialSize = MathUtil.mathRoundPoT(initialSize);
         }
-        createGLBuffer(initialSize);
-        freeAllocations.add(new Allocation.Info(0, size));
+        createGLBuffer(initialSize, RangeAllocator.NULL_BLOCK);
+        minimumSize = size;
+        rangeAllocator = Options.createRangeAllocator(options, size);
+        BufferStatistics.track(this);
         
         
         // cannot reference 'this'
@@ -260,6 +328,21 @@ public class GL46Buffer implements Buffer {
     
     @Override
     public void delete() {
+        if (copyFence != 0) {
+            glDeleteSync(copyFence);
+            copyFence = 0;
+        }
+        for (final var redirected : redirectedWrites.values()) {
+            if (redirected.source != null && redirected.source != copySource && --redirected.source.redirects == 0) {
+                redirected.source.delete();
+            }
+        }
+        redirectedWrites.clear();
+        if (copySource != null) {
+            copySource.delete();
+            copySource = null;
+        }
+        redirectingBuffers.remove(this);
         if (!GPUOnly) {
             glUnmapNamedBuffer(glBufferArray[0]);
         }
@@ -281,35 +364,26 @@ public class GL46Buffer implements Buffer {
         return new Allocation(allocSpace(size, alignment));
     }
     
-    private Allocation.Info allocSpace(int size, int alignment) {
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            final var attemptedAlloc = attemptAllocInSpace(freeAllocations.get(i), size, alignment);
-            if (attemptedAlloc != null) {
-                freeAllocations.remove(i);
-                return attemptedAlloc;
+    private int allocBlock(int size, int alignment) {
+        int block = rangeAllocator.alloc(size, alignment);
+        if (block == RangeAllocator.NULL_BLOCK) {
+            expand(rangeAllocator.requiredCapacity(size, alignment));
+            block = rangeAllocator.alloc(size, alignment);
+            if (block == RangeAllocator.NULL_BLOCK) {
+                throw new IllegalStateException("Alloc failed even after expanding buffer");
             }
         }
-        
-        int endOffset = this.size;
-        int minSize = this.size + size;
-        if (!freeAllocations.isEmpty()) {
-            var endAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            if (endAlloc.offset + endAlloc.size == this.size) {
-                minSize -= endAlloc.size;
-                endOffset = endAlloc.offset;
-            }
-        }
-        final int nextValidAlignment = (endOffset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - endOffset;
-        minSize += alignmentWaste;
-        
-        expand(minSize);
-        
-        final var attemptedAlloc = attemptAllocInSpace(freeAllocations.pop(), size, alignment);
-        if (attemptedAlloc == null) {
-            throw new IllegalStateException("Alloc failed even after expanding buffer");
-        }
-        return attemptedAlloc;
+        return block;
+    }
+    
+    private Allocation.Info allocSpace(int size, int alignment) {
+        reclaimRetired();
+        statistics.allocs++;
+        final int block = allocBlock(size, alignment);
+        final var info = new Allocation.Info(block, rangeAllocator.offset(block), size, alignment);
+        liveAllocations.put(block, info);
+        liveBytes += size;
+        return info;
     }
     
     @Override
@@ -329,119 +403,56 @@ public class GL46Buffer implements Buffer {
             throw new IllegalArgumentException("Cannot realloc allocation from another buffer");
         }
         
-        var liveIndex = liveAllocations.indexOf(allocation.info);
-        if (liveIndex == -1) {
+        // identity, a stale allocation object can have an equal info to a live one
+        if (liveAllocations.get(allocation.info.block) != allocation.info) {
             throw new IllegalArgumentException("Cannot realloc non-live allocation");
         }
         
-        if (newSize <= allocation.info.size && (allocation.info.offset & (alignment - 1)) == 0) {
-            // this allocation already meets size and alignment requirements
-            if (newSize == allocation.info.size) {
-                return allocation;
-            }
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
-            }
-            var newAllocInfos = allocation.info.split(newSize);
-            var newAllocInfo = newAllocInfos.getFirst();
-            var freeAllocInfo = newAllocInfos.getSecond();
-            freeAllocations.add(freeAllocInfo);
-            int index = freeAllocations.indexOf(freeAllocInfo);
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-            liveAllocations.add(newAllocInfo);
-            return new Allocation(allocation, newAllocInfo, copyData);
-        }
+        reclaimRetired();
+        statistics.reallocs++;
         
-        Allocation.Info precedingAlloc = null;
-        Allocation.Info followingAlloc = null;
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            var freeAllocation = freeAllocations.get(i);
-            if (freeAllocation.offset + freeAllocation.size == allocation.info.offset) {
-                precedingAlloc = freeAllocation;
-                continue;
+        final var info = allocation.info;
+        // a block a copy is still landing in keeps its size until the copy is done, so its redirect stays the right size
+        if ((info.offset & (alignment - 1)) == 0 && !copyPending(info.block)) {
+            // this allocation already meets alignment requirements, attempt to resize it in place
+            if (newSize == info.size) {
+                return allocation;
             }
-            if (freeAllocation.offset == allocation.info.offset + allocation.info.size) {
-                followingAlloc = freeAllocation;
-                break;
+            boolean resized;
+            if (newSize < info.size) {
+                // frames in flight may still be reading the tail, so it's retired like a free, not handed straight back
+                // allocators that can't split keep the whole block, the tail comes back when it's freed
+                final int tail = rangeAllocator.splitTail(info.block, newSize);
+                if (tail != RangeAllocator.NULL_BLOCK) {
+                    retire(tail);
+                }
+                resized = true;
+            } else {
+                resized = rangeAllocator.resize(info.block, newSize);
+                // copied data would be redirected to the old buffer, which doesn't have room for the new size, so that goes through a new block instead
+                if (!resized && rangeAllocator.isAtEnd(info.block) && (!copyData || !fencedCopies())) {
+                    // end allocation, so I can resize it to whatever is needed
+                    // the data isn't needed, so it isn't copied either, nothing is pending on it and it can be written straight away
+                    expand(info.offset + newSize, copyData ? RangeAllocator.NULL_BLOCK : info.block);
+                    resized = rangeAllocator.resize(info.block, newSize);
+                }
             }
-            if (freeAllocation.offset > allocation.info.offset) {
-                break;
+            if (resized) {
+                final var newAllocInfo = new Allocation.Info(info.block, info.offset, newSize, alignment);
+                liveAllocations.put(info.block, newAllocInfo);
+                liveBytes += newSize - info.size;
+                return new Allocation(allocation, newAllocInfo, copyData);
             }
         }
-        int fullBlockOffset = precedingAlloc == null ? allocation.info.offset : precedingAlloc.offset;
-        final int nextValidAlignment = (fullBlockOffset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - fullBlockOffset;
-        int fullBlockSize = allocation.info.size;
-        if (precedingAlloc != null) {
-            fullBlockSize += precedingAlloc.size;
-        }
-        if (followingAlloc != null) {
-            fullBlockSize += followingAlloc.size;
-        } else if (allocation.info.offset + allocation.info.size == size) {
-            // end allocation, so I can resize it to whatever is needed
-            freeAllocations.remove(precedingAlloc);
-            int minSize = fullBlockOffset + alignmentWaste + newSize;
-            expand(minSize);
-            followingAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            fullBlockSize += followingAlloc.size;
-        }
         
-        if (fullBlockSize - alignmentWaste >= newSize) {
-            // ok, available memory exists around where the data currently is
-            freeAllocations.remove(precedingAlloc);
-            freeAllocations.remove(followingAlloc);
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
-            }
-            
-            var newAllocInfo = attemptAllocInSpace(new Allocation.Info(fullBlockOffset, fullBlockSize), newSize, alignment);
-            if (newAllocInfo == null) {
-                throw new IllegalStateException("Realloc failed in guaranteed space");
-            }
-            return new Allocation(allocation, newAllocInfo, copyData);
+        if (copyData) {
+            // the copy reads the buffer, redirected writes have to be there first
+            flushRedirects();
         }
-        
         free(allocation);
         return new Allocation(allocation, allocSpace(newSize, alignment), copyData);
     }
     
-    @Nullable
-    private Allocation.Info attemptAllocInSpace(Allocation.Info freeAlloc, int size, int alignment) {
-        // next value guaranteed to be at *most* one less than the next alignment, then bit magic because powers of two to round down without a divide
-        final int nextValidAlignment = (freeAlloc.offset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - freeAlloc.offset;
-        if (freeAlloc.size - alignmentWaste < size) {
-            // wont fit, *neeeeeeeeeeeext*
-            return null;
-        }
-        boolean collapse = false;
-        if (alignmentWaste > 0) {
-            final var newAllocs = freeAlloc.split(alignmentWaste);
-            // not concurrent modification because this will always return
-            freeAllocations.add(newAllocs.getFirst());
-            freeAlloc = newAllocs.getSecond();
-            
-            int index = freeAllocations.indexOf(newAllocs.getFirst());
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-        }
-        if (freeAlloc.size > size) {
-            final var newAllocs = freeAlloc.split(size);
-            // not concurrent modification because this will always return
-            freeAlloc = newAllocs.getFirst();
-            freeAllocations.add(newAllocs.getSecond());
-            int index = freeAllocations.indexOf(newAllocs.getSecond());
-            collapseFreeAllocationWithNext(index - 1);
-            collapseFreeAllocationWithNext(index);
-        }
-        
-        liveAllocations.add(freeAlloc);
-        return freeAlloc;
-    }
-    
     @Override
     public void free(Buffer.Allocation allocation) {
         if (allocation instanceof Allocation alloc) {
@@ -450,7 +461,6 @@ public class GL46Buffer implements Buffer {
     }
     
     public void free(Allocation allocation) {
-        allocation.bufferRealloc.delete();
         if (!allocation.freed[0]) {
             allocation.freed[0] = true;
             free(allocation.info);
@@ -458,18 +468,403 @@ public class GL46Buffer implements Buffer {
     }
     
     private void free(Allocation.Info allocation) {
-        var index = liveAllocations.indexOf(allocation);
-        if (index == -1) {
+        if (liveAllocations.get(allocation.block) != allocation) {
+            return;
+        }
+        liveAllocations.remove(allocation.block);
+        liveBytes -= allocation.size;
+        allocationRefs.remove(allocation.block);
+        dropRedirect(allocation.block);
+        retire(allocation.block);
+        statistics.frees++;
+    }
+    
+    @Override
+    public long allocHandle(int size, int alignment) {
+        reclaimRetired();
+        statistics.allocs++;
+        final int block = allocBlock(size, alignment);
+        if (++handleGeneration == 0) {
+            handleGeneration = 1;
+        }
+        final long generation = (long) handleGeneration << 32;
+        liveHandles.put(block, generation | size);
+        liveBytes += size;
+        return generation | block;
+    }
+    
+    @Override
+    public void freeHandle(long handle) {
+        if (!isHandleLive(handle)) {
+            return;
+        }
+        final int block = (int) handle;
+        liveBytes -= (int) liveHandles.remove(block);
+        dropRedirect(block);
+        retire(block);
+        statistics.frees++;
+    }
+    
+    @Override
+    public boolean isHandleLive(long handle) {
+        // missing blocks return 0, which never matches a generation
+        return handle != NULL_HANDLE && (liveHandles.get((int) handle) >>> 32) == (handle >>> 32);
+    }
+    
+    private long liveHandleEntry(long handle) {
+        final long entry = liveHandles.get((int) handle);
+        if (handle == NULL_HANDLE || (entry >>> 32) != (handle >>> 32)) {
+            throw new IllegalArgumentException("Stale or foreign buffer handle");
+        }
+        return entry;
+    }
+    
+    @Override
+    public int handleOffset(long handle) {
+        liveHandleEntry(handle);
+        return rangeAllocator.offset((int) handle);
+    }
+    
+    @Override
+    public int handleSize(long handle) {
+        return (int) liveHandleEntry(handle);
+    }
+    
+    @Override
+    public PointerWrapper handleAddress(long handle) {
+        final long entry = liveHandleEntry(handle);
+        if (GPUOnly) {
+            return PointerWrapper.NULLPTR;
+        }
+        final int block = (int) handle;
+        final int offset = rangeAllocator.offset(block);
+        if (redirecting()) {
+            return new PointerWrapper(writeAddress(block, offset, (int) entry), (int) entry);
+        }
+        return new PointerWrapper(mappedMemory + offset, (int) entry);
+    }
+    
+    @Override
+    public void dirtyHandleRange(long handle, int offset, int size) {
+        // coherent mapping, no need to flush
+    }
+    
+    private void retire(int block) {
+        retiredBlocks.enqueue(block);
+        retiredFrames.enqueue(GL46FrameSync.currentFrame());
+        retiredBytes += rangeAllocator.size(block);
+    }
+    
+    /**
+     * Copies redirected writes to where they belong, in every buffer that has any
+     * GPU reads of a buffer only see redirected writes once this is called, so call it after writing, before dispatching or drawing from them
+     */
+    public static void flushRedirectedWrites() {
+        if (redirectingBuffers.isEmpty()) {
+            return;
+        }
+        for (final var buffer : redirectingBuffers) {
+            buffer.flushRedirects();
+        }
+    }
+    
+    /**
+     * Ends copies and redirects that are done, for buffers that aren't allocated from every frame
+     */
+    static void frameStart() {
+        if (redirectingBuffers.isEmpty()) {
             return;
         }
-        var removed = liveAllocations.pop();
-        if (index != liveAllocations.size()) {
-            liveAllocations.set(index, removed);
+        for (final var buffer : redirectingBuffers.toArray(new GL46Buffer[0])) {
+            buffer.pollCopy();
+        }
+    }
+    
+    private boolean fencedCopies() {
+        return !GPUOnly && !CPUMem;
+    }
+    
+    private boolean redirecting() {
+        return copyFence != 0 || !redirectedWrites.isEmpty();
+    }
+    
+    /**
+     * @return if a GPU copy into the block may not have landed yet
+     */
+    private boolean copyPending(int block) {
+        return redirectedWrites.containsKey(block) || (copyFence != 0 && (copiedBlocks.contains(block) || movedFrom.containsKey(block)));
+    }
+    
+    /**
+     * Where CPU writes to the block go, the mapping, unless a GPU copy into it may still be pending
+     * then they go to the copy's source, which the GPU is only reading, and flushRedirects copies them over after the copy
+     * a block goes back to the mapping once everything copied into it has landed, and nothing was written to the source since
+     */
+    private long writeAddress(int block, int offset, int size) {
+        var redirected = redirectedWrites.get(block);
+        if (redirected == null) {
+            if (copyFence == 0) {
+                return mappedMemory + offset;
+            }
+            if (copySource != null && copiedBlocks.remove(block)) {
+                redirected = new RedirectedWrite(copySource, offset, offset, size, RangeAllocator.NULL_BLOCK);
+                copySource.redirects++;
+            } else if (movedFrom.containsKey(block)) {
+                final int sourceBlock = movedFrom.remove(block);
+                redirected = new RedirectedWrite(null, rangeAllocator.offset(sourceBlock), offset, size, sourceBlock);
+            } else {
+                return mappedMemory + offset;
+            }
+            redirectedWrites.put(block, redirected);
+            redirectingBuffers.add(this);
+            statistics.redirectedWrites++;
+        } else if (redirectDone(redirected)) {
+            endRedirect(block, redirected);
+            return mappedMemory + offset;
+        }
+        redirected.dirty = true;
+        return (redirected.source == null ? mappedMemory : redirected.source.mappedMemory) + redirected.sourceOffset;
+    }
+    
+    private boolean redirectDone(RedirectedWrite redirected) {
+        return copyFence == 0 && !redirected.dirty && redirected.flushedFrame <= GL46FrameSync.completedFrame();
+    }
+    
+    private void flushRedirects() {
+        for (final var redirected : redirectedWrites.values()) {
+            if (!redirected.dirty) {
+                continue;
+            }
+            final int sourceBuffer = redirected.source == null ? glBuffer : redirected.source.glBuffer;
+            // source and destination are different live blocks, so this never overlaps
+            glCopyNamedBufferSubData(sourceBuffer, glBuffer, redirected.sourceOffset, redirected.offset, redirected.size);
+            redirected.dirty = false;
+            redirected.flushedFrame = GL46FrameSync.currentFrame();
+        }
+    }
+    
+    private void endRedirect(int block, RedirectedWrite redirected) {
+        redirectedWrites.remove(block);
+        if (redirected.sourceBlock != RangeAllocator.NULL_BLOCK) {
+            retire(redirected.sourceBlock);
+        }
+        if (redirected.source != null) {
+            redirected.source.redirects--;
+            releaseIfUnused(redirected.source);
+        }
+        if (redirectedWrites.isEmpty() && copySource == null && copyFence == 0) {
+            redirectingBuffers.remove(this);
+        }
+    }
+    
+    /**
+     * Block is being freed, anything written to it since the last flush doesn't matter anymore
+     * flushes already sent are older than the block's retirement, so they land before it's reused
+     */
+    private void dropRedirect(int block) {
+        copiedBlocks.remove(block);
+        if (movedFrom.containsKey(block)) {
+            retire(movedFrom.remove(block));
+        }
+        final var redirected = redirectedWrites.get(block);
+        if (redirected != null) {
+            endRedirect(block, redirected);
+        }
+    }
+    
+    private void releaseIfUnused(Generation generation) {
+        if (generation.redirects == 0 && generation != copySource) {
+            generation.delete();
+        }
+    }
+    
+    /**
+     * Fences GPU copies just submitted
+     * fences signal in order, so the newest one covers anything still pending from the last
+     */
+    private void fenceCopy() {
+        if (copyFence != 0) {
+            glDeleteSync(copyFence);
+        }
+        copyFence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        redirectingBuffers.add(this);
+    }
+    
+    private void pollCopy() {
+        if (copyFence != 0) {
+            final var waitResult = glClientWaitSync(copyFence, 0, 0);
+            if (waitResult != GL_ALREADY_SIGNALED && waitResult != GL_CONDITION_SATISFIED) {
+                return;
+            }
+            glDeleteSync(copyFence);
+            copyFence = 0;
+            // blocks nothing was written to while they were copied are just done
+            copiedBlocks.clear();
+            for (final var entry : movedFrom.int2IntEntrySet()) {
+                retire(entry.getIntValue());
+            }
+            movedFrom.clear();
+            if (copySource != null) {
+                final var source = copySource;
+                copySource = null;
+                releaseIfUnused(source);
+            }
+        }
+        if (!redirectedWrites.isEmpty()) {
+            final var doneBlocks = new IntArrayList();
+            for (final var entry : redirectedWrites.int2ObjectEntrySet()) {
+                if (redirectDone(entry.getValue())) {
+                    doneBlocks.add(entry.getIntKey());
+                }
+            }
+            for (int i = 0; i < doneBlocks.size(); i++) {
+                final int block = doneBlocks.getInt(i);
+                endRedirect(block, redirectedWrites.get(block));
+            }
+        }
+        if (redirectedWrites.isEmpty() && copySource == null) {
+            redirectingBuffers.remove(this);
         }
-        freeAllocations.add(allocation);
-        index = freeAllocations.indexOf(allocation);
-        collapseFreeAllocationWithNext(index - 1);
-        collapseFreeAllocationWithNext(index);
+    }
+    
+    private void reclaimRetired() {
+        pollCopy();
+        final long completedFrame = GL46FrameSync.completedFrame();
+        while (!retiredFrames.isEmpty() && retiredFrames.firstLong() <= completedFrame) {
+            retiredFrames.dequeueLong();
+            final int block = retiredBlocks.dequeueInt();
+            retiredBytes -= rangeAllocator.size(block);
+            rangeAllocator.free(block);
+        }
+    }
+    
+    /**
+     * Moves live allocations towards the start of the buffer, so trim can shrink it
+     * Moved allocations keep the same allocation object, its offset changes and its realloc callbacks are called with it
+     * <p>
+     * Data is copied on the GPU unless this is CPU memory, for other mapped buffers the copies are fenced the same as a growth copy
+     * writes to a moved allocation go to its old block until the copy is done, see writeAddress
+     * nothing is moved while an earlier copy or redirect is still pending, the next call picks it up
+     * <p>
+     * Walks down from the last live block, each is re-allocated with the allocator's normal (good fit) search
+     * and moved if that lands lower, the walk stops at the first block that doesn't
+     *
+     * @return bytes moved
+     */
+    @Override
+    public int compact(int maxBytes) {
+        reclaimRetired();
+        if (copySource != null || copyFence != 0 || !redirectedWrites.isEmpty()) {
+            return 0;
+        }
+        int bytesMoved = 0;
+        int copyEnd = 0;
+        int block = rangeAllocator.lastLive();
+        while (block != RangeAllocator.NULL_BLOCK && bytesMoved < maxBytes) {
+            // the old block stays live until its retired, so this can be grabbed before moving
+            final int previousBlock = rangeAllocator.previousLive(block);
+            final var ref = allocationRefs.get(block);
+            final Allocation allocation = ref == null ? null : ref.get();
+            if (allocation == null) {
+                // retired, or waiting for the cleaner, either way it will be freed soon
+                // handle allocations don't have an allocation object either, those are never moved
+                block = previousBlock;
+                continue;
+            }
+            final var info = allocation.info;
+            final int newBlock = rangeAllocator.alloc(info.size, info.alignment);
+            if (newBlock == RangeAllocator.NULL_BLOCK) {
+                break;
+            }
+            final int newOffset = rangeAllocator.offset(newBlock);
+            if (newOffset > info.offset) {
+                // good fit landed higher, stop here rather than looking for a lower hole
+                rangeAllocator.free(newBlock);
+                break;
+            }
+            // old block is still allocated, so these never overlap
+            if (CPUMem) {
+                final var mapping = new PointerWrapper(mappedMemory, size);
+                mapping.copyTo(info.offset, mapping, newOffset, info.size);
+            } else {
+                glCopyNamedBufferSubData(glBuffer, glBuffer, info.offset, newOffset, info.size);
+                copyEnd = Math.max(copyEnd, newOffset + info.size);
+            }
+            move(allocation, new Allocation.Info(newBlock, newOffset, info.size, info.alignment));
+            bytesMoved += info.size;
+            block = previousBlock;
+        }
+        if (copyEnd != 0 && !GPUOnly) {
+            fenceCopy();
+        }
+        statistics.compactedBytes += bytesMoved;
+        return bytesMoved;
+    }
+    
+    private void move(Allocation allocation, Allocation.Info newInfo) {
+        final var oldInfo = allocation.info;
+        liveAllocations.remove(oldInfo.block);
+        liveAllocations.put(newInfo.block, newInfo);
+        allocationRefs.put(newInfo.block, allocationRefs.remove(oldInfo.block));
+        if (fencedCopies()) {
+            // writes go to the old location until the copy is done, its retired after that
+            movedFrom.put(newInfo.block, oldInfo.block);
+        } else {
+            // GPU may still be reading the old location
+            retire(oldInfo.block);
+        }
+        allocation.info = newInfo;
+        allocation.cleanerInfo[0] = newInfo;
+        allocation.cpuAddress = null;
+        for (int i = 0; i < allocation.reallocCallbacks.size(); i++) {
+            allocation.reallocCallbacks.get(i).accept(allocation);
+        }
+    }
+    
+    @Override
+    public void trim() {
+        if (copySource != null || copyFence != 0 || !redirectedWrites.isEmpty()) {
+            // try again once the last copy is done
+            return;
+        }
+        final var trimOptions = QuartzConfig.INSTANCE.bufferTrim;
+        // over the VRAM budget, anything under half used is shrunk as soon as possible
+        final boolean overBudget = GL46MemoryBudget.overBudget();
+        if (liveBytes >= size * (overBudget ? Math.max(trimOptions.trimFraction, 0.5) : trimOptions.trimFraction)) {
+            lowUsageFrames = 0;
+            return;
+        }
+        if (++lowUsageFrames < (overBudget ? 1 : trimOptions.trimFrames)) {
+            return;
+        }
+        // if the end of the buffer is still in use this fails, try again after another round
+        lowUsageFrames = 0;
+        final int newSize = MathUtil.mathRoundPoT(Math.max(rangeAllocator.trailingFreeOffset(), minimumSize));
+        if (newSize >= size || !rangeAllocator.shrink(newSize)) {
+            return;
+        }
+        statistics.trims++;
+        statistics.resizeBytesCopied += newSize;
+        createGLBuffer(newSize, RangeAllocator.NULL_BLOCK);
+        
+        statistics.reallocCallbacks += reallocCallbacks.size();
+        reallocCallbacks.forEach(c -> c.accept(this));
+    }
+    
+    @Override
+    public BufferStatistics statistics() {
+        statistics.capacity = size;
+        statistics.liveBytes = liveBytes;
+        statistics.liveAllocations = liveAllocations.size() + liveHandles.size();
+        statistics.freeBytes = rangeAllocator.freeBytes();
+        statistics.largestFreeBlock = rangeAllocator.largestFreeBlock();
+        statistics.pendingFreeBytes = retiredBytes;
+        return statistics;
+    }
+    
+    @Override
+    public boolean cpuReadable() {
+        return CPUMem;
     }
     
     @Override
@@ -488,89 +883,141 @@ public class GL46Buffer implements Buffer {
     }
     
     private void expand(int minSize) {
+        expand(minSize, RangeAllocator.NULL_BLOCK);
+    }
+    
+    /**
+     * @param uncopiedBlock: live block whose data isn't needed, it's left out of the copy
+     */
+    private void expand(int minSize, int uncopiedBlock) {
         if (size >= minSize) {
             return;
         }
         
-        int oldSize = size;
         int newSize = Integer.highestOneBit(minSize);
         if (newSize < minSize) {
             newSize <<= 1;
         }
         
-        createGLBuffer(newSize);
+        statistics.expands++;
+        statistics.resizeBytesCopied += size;
+        createGLBuffer(newSize, uncopiedBlock);
         size = newSize;
         
-        freeAllocations.add(new Allocation.Info(oldSize, newSize - oldSize));
-        
-        collapseFreeAllocationWithNext(freeAllocations.size() - 2);
+        rangeAllocator.grow(newSize);
         
+        statistics.reallocCallbacks += reallocCallbacks.size();
         reallocCallbacks.forEach(c -> c.accept(this));
     }
     
-    private void createGLBuffer(int size) {
-        if (size <= this.size) {
+    private void createGLBuffer(int size, int uncopiedBlock) {
+        if (size == this.size) {
             return;
         }
+        // can be smaller when shrinking, only whats still in range is copied
+        final int copySize = Math.min(size, this.size);
         final var newBuffer = glCreateBuffers();
         final int flags = GPUOnly ? GL_DYNAMIC_STORAGE_BIT : ((CPUMem ? GL_CLIENT_STORAGE_BIT | GL_MAP_READ_BIT : 0) | GL_MAP_PERSISTENT_BIT | GL_MAP_WRITE_BIT | GL_MAP_COHERENT_BIT);
         glNamedBufferStorage(newBuffer, size, flags);
+        long newMappedMemory = 0;
         if (!GPUOnly) {
-            final var newMappedMemory = nglMapNamedBufferRange(newBuffer, 0, size, ((CPUMem ? GL_MAP_READ_BIT : 0) | GL_MAP_PERSISTENT_BIT | GL_MAP_WRITE_BIT | GL_MAP_COHERENT_BIT));
+            newMappedMemory = nglMapNamedBufferRange(newBuffer, 0, size, ((CPUMem ? GL_MAP_READ_BIT : 0) | GL_MAP_PERSISTENT_BIT | GL_MAP_WRITE_BIT | GL_MAP_COHERENT_BIT));
             final var newMappingPointer = new PointerWrapper(newMappedMemory, size);
             PointerWrapper.addAccessibleLocation(newMappingPointer);
             
-            if (glBuffer != 0) {
-                final var oldMappingPointer = new PointerWrapper(mappedMemory, this.size);
-                if (CPUMem) {
-                    // if memory is on the CPU anyway, do the copy here, avoid the need to wait
-                    oldMappingPointer.copyTo(newMappingPointer);
-                }
-                PointerWrapper.removeAccessibleLocation(oldMappingPointer);
-                glUnmapNamedBuffer(glBuffer);
+            if (glBuffer != 0 && CPUMem) {
+                // if memory is on the CPU anyway, do the copy here, avoid the need to wait
+                new PointerWrapper(mappedMemory, this.size).copyTo(newMappingPointer);
             }
-            
-            mappedMemory = newMappedMemory;
         }
         if (glBuffer != 0) {
-            if (!CPUMem) {
-                glCopyNamedBufferSubData(glBuffer, newBuffer, 0, 0, this.size);
-            }
-            if (!GPUOnly && !CPUMem) {
-                // because you could want to write over memory that was just copied, until that copy is finishes, its invalid to do so
-                // only matters for CPU writable memory though
-                glFinish();
+            if (fencedCopies()) {
+                // redirected writes have to be in the old buffer before its copied out of
+                flushRedirects();
+                final var oldBuffer = new Generation(glBuffer, mappedMemory, this.size);
+                copyLiveBlocks(newBuffer, uncopiedBlock);
+                rebaseRedirects(oldBuffer);
+                // the old buffer stays mapped, writes to anything still being copied out of it go there instead of waiting, see writeAddress
+                // a new copy covers everything the last one did, and is ordered after it, so the last source is only kept for its redirects
+                final var previousSource = copySource;
+                copySource = oldBuffer;
+                if (previousSource != null) {
+                    releaseIfUnused(previousSource);
+                }
+                fenceCopy();
+            } else {
+                if (!GPUOnly) {
+                    PointerWrapper.removeAccessibleLocation(new PointerWrapper(mappedMemory, this.size));
+                    glUnmapNamedBuffer(glBuffer);
+                } else {
+                    glCopyNamedBufferSubData(glBuffer, newBuffer, 0, 0, copySize);
+                }
+                glDeleteBuffers(glBuffer);
             }
         }
-        glDeleteBuffers(glBuffer);
         
+        mappedMemory = newMappedMemory;
         glBufferArray[0] = glBuffer = newBuffer;
         this.size = size;
-        
+        baseVersion++;
     }
     
-    private boolean collapseFreeAllocationWithNext(int freeAllocationIndex) {
-        if (freeAllocationIndex < 0 || freeAllocationIndex >= freeAllocations.size() - 1) {
-            return false;
+    /**
+     * Copies every live allocation and handle into the new buffer, adjacent blocks in one copy
+     * free space and retired blocks aren't copied, so an allocation made while the copy is pending never lands on it
+     */
+    private void copyLiveBlocks(int newBuffer, int uncopiedBlock) {
+        copiedBlocks.clear();
+        final var ranges = new LongArrayList(liveAllocations.size() + liveHandles.size());
+        for (final var info : liveAllocations.values()) {
+            if (info.block == uncopiedBlock) {
+                continue;
+            }
+            ranges.add(((long) info.offset << 32) | rangeAllocator.size(info.block));
+            copiedBlocks.add(info.block);
+        }
+        for (final int block : liveHandles.keySet()) {
+            ranges.add(((long) rangeAllocator.offset(block) << 32) | rangeAllocator.size(block));
+            copiedBlocks.add(block);
+        }
+        final long[] sortedRanges = ranges.toLongArray();
+        Arrays.sort(sortedRanges);
+        int start = 0;
+        int end = 0;
+        for (final long range : sortedRanges) {
+            final int offset = (int) (range >>> 32);
+            if (offset != end) {
+                if (end != start) {
+                    glCopyNamedBufferSubData(glBuffer, newBuffer, start, start, end - start);
+                }
+                start = offset;
+            }
+            end = offset + (int) range;
         }
-        var allocA = freeAllocations.get(freeAllocationIndex);
-        var allocB = freeAllocations.get(freeAllocationIndex + 1);
-        if (allocA.offset + allocA.size == allocB.offset) {
-            // neighboring allocations, collapse them
-            freeAllocations.remove(freeAllocationIndex + 1);
-            freeAllocations.remove(freeAllocationIndex);
-            freeAllocations.add(new Allocation.Info(allocA.offset, allocA.size + allocB.size));
-            return true;
+        if (end != start) {
+            glCopyNamedBufferSubData(glBuffer, newBuffer, start, start, end - start);
         }
-        return false;
     }
     
-    @Deprecated(forRemoval = true)
-    private void collapseFreeAllocations() {
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            if (collapseFreeAllocationWithNext(i)) {
-                i--;
+    /**
+     * Compaction redirects read from the replaced buffer now, their old blocks can be reused in the new one
+     * moves nothing was written to were copied before this growth copy, so they're just done
+     */
+    private void rebaseRedirects(Generation oldBuffer) {
+        for (final var redirected : redirectedWrites.values()) {
+            if (redirected.source != null) {
+                continue;
+            }
+            redirected.source = oldBuffer;
+            oldBuffer.redirects++;
+            if (redirected.sourceBlock != RangeAllocator.NULL_BLOCK) {
+                retire(redirected.sourceBlock);
+                redirected.sourceBlock = RangeAllocator.NULL_BLOCK;
             }
         }
+        for (final var entry : movedFrom.int2IntEntrySet()) {
+            retire(entry.getIntValue());
+        }
+        movedFrom.clear();
     }
 }
@@ -8,7 +8,11 @@ public class GL46Config {
     @ConfigValue(advanced = ConfigValue.BoolOption.False)
     public final boolean ALLOW_SPARSE_TEXTURE;
     
+    @ConfigValue(advanced = ConfigValue.BoolOption.True, comment = "VRAM Quartz may use, in MiB, before it starts releasing memory\n0 uses the driver's free memory info instead, when available", range = "[0,)")
+    public final int VRAM_BUDGET_MB;
+    
     {
         ALLOW_SPARSE_TEXTURE = true;
+        VRAM_BUDGET_MB = 0;
     }
 }
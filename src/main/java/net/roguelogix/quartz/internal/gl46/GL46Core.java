@@ -12,9 +12,11 @@ import net.minecraft.client.renderer.RenderType;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.DrawBatch;
 import net.roguelogix.quartz.internal.Buffer;
+import net.roguelogix.quartz.internal.BufferStatistics;
 import net.roguelogix.quartz.internal.IrisDetection;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.DrawInfo;
+import net.roguelogix.quartz.internal.util.NativeMemoryPool;
 import org.joml.Matrix4f;
 import org.lwjgl.opengl.KHRDebug;
 
@@ -52,6 +54,8 @@ public class GL46Core extends QuartzCore {
     protected void startupInternal() {
         GL46ComputePrograms.startup();
         GL46FeedbackPrograms.startup();
+        GL46StagingRing.startup();
+        GL46MemoryBudget.startup();
         GL46LightEngine.startup();
         GL46FeedbackDrawing.startup();
     }
@@ -60,8 +64,12 @@ public class GL46Core extends QuartzCore {
     protected void shutdownInternal() {
         GL46FeedbackDrawing.shutdown();
         GL46LightEngine.shutdown();
+        GL46StagingRing.shutdown();
+        GL46MemoryBudget.shutdown();
         GL46FeedbackPrograms.shutdown();
         GL46ComputePrograms.shutdown();
+        GL46FrameSync.shutdown();
+        NativeMemoryPool.releasePooled();
     }
     
     @Override
@@ -84,6 +92,13 @@ public class GL46Core extends QuartzCore {
     @Override
     public void frameStart(PoseStack pMatrixStack, float pPartialTicks, long pFinishTimeNano, boolean pDrawBlockOutline, Camera pActiveRenderInfo, GameRenderer pGameRenderer, LightTexture pLightmap, Matrix4f pProjection) {
         deletionQueue.runAll();
+        NativeMemoryPool.reclaimDeadThreadCaches();
+        GL46FrameSync.frameStart();
+        GL46Buffer.frameStart();
+        GL46MemoryBudget.frameStart();
+        // moved meshes are fenced, a rebuild writing to one goes to the old block until its copy is done
+        meshManager.vertexBuffer.compact(GL46Statics.COMPACTION_BYTES_PER_FRAME);
+        meshManager.vertexBuffer.trim();
         
         frameInFlight++;
         frameInFlight %= GL46Statics.FRAMES_IN_FLIGHT;
@@ -112,6 +127,7 @@ public class GL46Core extends QuartzCore {
         drawInfo.deltaNano = deltaNano;
         drawInfo.partialTicks = pPartialTicks;
         
+        GL46Buffer.flushRedirectedWrites();
         GL46FeedbackDrawing.beginFrame();
     }
     
@@ -212,5 +228,10 @@ public class GL46Core extends QuartzCore {
     public void addDebugText(List<String> list) {
         list.add("Quartz backend: OpenGL 4.6");
         list.add("Spare texture: " + (GL46Statics.SPARSE_TEXTURE_ENABLED ? "enabled" : "disabled"));
+        BufferStatistics.addDebugText(list);
+        NativeMemoryPool.addDebugText(list);
+        meshManager.addDebugText(list);
+        GL46StagingRing.addDebugText(list);
+        GL46MemoryBudget.addDebugText(list);
     }
 }
@@ -6,6 +6,7 @@ import net.minecraft.client.renderer.RenderType;
 import net.roguelogix.quartz.DrawBatch;
 import net.roguelogix.quartz.internal.*;
 import net.roguelogix.quartz.internal.common.B3DStateHelper;
+import net.roguelogix.quartz.internal.common.InternalMesh;
 import net.roguelogix.quartz.internal.gl46.batching.GL46DrawBatch;
 import net.roguelogix.quartz.internal.util.VertexFormatOutput;
 import org.joml.Matrix4f;
@@ -77,7 +78,7 @@ public class GL46FeedbackDrawing {
         B3DStateHelper.bindVertexArray(feedbackVAO);
         
         rebuildCallbackHandle = QuartzCore.INSTANCE.meshManager.vertexBuffer.addReallocCallback(true, buffer -> {
-            glVertexArrayVertexBuffer(feedbackVAO, 0, buffer.as(GL46Buffer.class).handle(), 0, MagicNumbers.VERTEX_BYTE_SIZE);
+            glVertexArrayVertexBuffer(feedbackVAO, 0, buffer.as(GL46Buffer.class).handle(), 0, InternalMesh.VERTEX_BYTE_SIZE);
         });
         
         // instance data is bound per drawbatch feedback draw, so no buffer binding here
@@ -86,7 +87,10 @@ public class GL46FeedbackDrawing {
         glEnableVertexAttribArray(GL46Statics.POSITION_LOCATION);
         glEnableVertexAttribArray(GL46Statics.COLOR_LOCATION);
         glEnableVertexAttribArray(GL46Statics.TEX_COORD_LOCATION);
-        glEnableVertexAttribArray(GL46Statics.NORMAL_LOCATION);
+        if (!InternalMesh.COMPACT_VERTICES) {
+            // compact normals are packed in with the position
+            glEnableVertexAttribArray(GL46Statics.NORMAL_LOCATION);
+        }
         
         glEnableVertexAttribArray(GL46Statics.WORLD_POSITION_LOCATION);
         glEnableVertexAttribArray(GL46Statics.DYNAMIC_MATRIX_ID_LOCATION);
@@ -103,10 +107,16 @@ public class GL46FeedbackDrawing {
         glVertexAttribBinding(GL46Statics.TEX_COORD_LOCATION, 0);
         glVertexAttribBinding(GL46Statics.NORMAL_LOCATION, 0);
         
-        glVertexAttribFormat(GL46Statics.POSITION_LOCATION, 3, GL_FLOAT, false, 0);
-        glVertexAttribIFormat(GL46Statics.COLOR_LOCATION, 1, GL_INT, 12);
-        glVertexAttribFormat(GL46Statics.TEX_COORD_LOCATION, 2, GL_FLOAT, false, 16);
-        glVertexAttribFormat(GL46Statics.NORMAL_LOCATION, 3, GL_SHORT, true, 24);
+        if (InternalMesh.COMPACT_VERTICES) {
+            glVertexAttribIFormat(GL46Statics.POSITION_LOCATION, 4, GL_SHORT, 0);
+            glVertexAttribIFormat(GL46Statics.COLOR_LOCATION, 1, GL_INT, 8);
+            glVertexAttribFormat(GL46Statics.TEX_COORD_LOCATION, 2, GL_UNSIGNED_SHORT, true, 12);
+        } else {
+            glVertexAttribFormat(GL46Statics.POSITION_LOCATION, 3, GL_FLOAT, false, 0);
+            glVertexAttribIFormat(GL46Statics.COLOR_LOCATION, 1, GL_INT, 12);
+            glVertexAttribFormat(GL46Statics.TEX_COORD_LOCATION, 2, GL_FLOAT, false, 16);
+            glVertexAttribFormat(GL46Statics.NORMAL_LOCATION, 3, GL_SHORT, true, 24);
+        }
         
         glVertexAttribBinding(GL46Statics.WORLD_POSITION_LOCATION, 1);
         glVertexAttribBinding(GL46Statics.DYNAMIC_MATRIX_ID_LOCATION, 1);
@@ -164,7 +174,7 @@ public class GL46FeedbackDrawing {
     
     private static int requiredVertices = 0;
     private static long[] prevousFrameSyncs = new long[GL46Statics.FRAMES_IN_FLIGHT];
-    private static MultiBuffer<GL46Buffer> UBOBuffers = new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, 0);
+    private static MultiBuffer<GL46Buffer> UBOBuffers = new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.LINEAR_ALLOCATOR);
     private static MultiBuffer<GL46Buffer>.Allocation UBOAllocation = UBOBuffers.alloc(64);
     
     public static boolean hasBatch() {
@@ -215,6 +225,7 @@ public class GL46FeedbackDrawing {
         UBOPointer.putVector3f(16, GL46Core.INSTANCE.drawInfo.playerSubBlock);
         UBOPointer.putVector3i(32, GL46LightEngine.lookupOffset());
         UBOPointer.putInt(44, IrisDetection.areShadersActive() ? 1 : 0);
+        GL46Buffer.flushRedirectedWrites();
         
         glBindBufferBase(GL_UNIFORM_BUFFER, 0, UBOBuffers.activeBuffer().handle());
         
@@ -6,7 +6,9 @@ import it.unimi.dsi.fastutil.objects.Reference2IntMap;
 import net.minecraft.resources.ResourceLocation;
 import net.roguelogix.phosphophyllite.util.Util;
 import net.roguelogix.quartz.Quartz;
+import net.roguelogix.quartz.internal.MagicNumbers;
 import net.roguelogix.quartz.internal.common.DrawInfo;
+import net.roguelogix.quartz.internal.common.InternalMesh;
 import net.roguelogix.quartz.internal.util.VertexFormatOutput;
 
 import static org.lwjgl.opengl.GL45C.*;
@@ -36,6 +38,10 @@ public class GL46FeedbackPrograms {
         prependBuilder.append("#define COLOR_LOCATION " + GL46Statics.COLOR_LOCATION + "\n");
         prependBuilder.append("#define TEX_COORD_LOCATION " + GL46Statics.TEX_COORD_LOCATION + "\n");
         prependBuilder.append("#define NORMAL_LOCATION " + GL46Statics.NORMAL_LOCATION + "\n");
+        if (InternalMesh.COMPACT_VERTICES) {
+            prependBuilder.append("#define COMPACT_VERTICES\n");
+            prependBuilder.append("#define COMPACT_VERTEX_EXPONENT_BIAS " + MagicNumbers.COMPACT_VERTEX_EXPONENT_BIAS + "\n");
+        }
         
         prependBuilder.append("#define WORLD_POSITION_LOCATION " + GL46Statics.WORLD_POSITION_LOCATION + "\n");
         prependBuilder.append("#define DYNAMIC_MATRIX_ID_LOCATION " + GL46Statics.DYNAMIC_MATRIX_ID_LOCATION + "\n");
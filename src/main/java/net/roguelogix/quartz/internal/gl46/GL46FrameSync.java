@@ -0,0 +1,70 @@
+package net.roguelogix.quartz.internal.gl46;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import static org.lwjgl.opengl.GL45C.*;
+
+/**
+ * Tracks which frames the GPU has finished with
+ * a fence is placed at the start of every frame, covering all work submitted during the previous one
+ */
+@NonnullDefault
+public class GL46FrameSync {
+    
+    // one more than frames in flight, a fence is only blocked on if its slot needs to be reused, at which point its FRAMES_IN_FLIGHT frames old
+    private static final long[] frameFences = new long[GL46Statics.FRAMES_IN_FLIGHT + 1];
+    private static long currentFrame = 0;
+    private static long completedFrame = -1;
+    
+    /**
+     * @return index of the frame currently being recorded
+     */
+    public static long currentFrame() {
+        return currentFrame;
+    }
+    
+    /**
+     * Only changes at frame start, so everything that checks this during a frame sees the same value
+     *
+     * @return index of the newest frame the GPU has finished all work for
+     */
+    public static long completedFrame() {
+        return completedFrame;
+    }
+    
+    static void frameStart() {
+        final int slot = (int) (currentFrame % frameFences.length);
+        if (frameFences[slot] != 0) {
+            glClientWaitSync(frameFences[slot], GL_SYNC_FLUSH_COMMANDS_BIT, -1);
+            glDeleteSync(frameFences[slot]);
+            frameFences[slot] = 0;
+            completedFrame = Math.max(completedFrame, currentFrame - frameFences.length);
+        }
+        frameFences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        
+        // poll anything else that has finished, oldest first, without waiting
+        for (long frame = completedFrame + 1; frame < currentFrame; frame++) {
+            final int frameSlot = (int) (frame % frameFences.length);
+            final var fence = frameFences[frameSlot];
+            if (fence != 0) {
+                final var waitResult = glClientWaitSync(fence, 0, 0);
+                if (waitResult != GL_ALREADY_SIGNALED && waitResult != GL_CONDITION_SATISFIED) {
+                    break;
+                }
+                glDeleteSync(fence);
+                frameFences[frameSlot] = 0;
+            }
+            completedFrame = frame;
+        }
+        currentFrame++;
+    }
+    
+    static void shutdown() {
+        for (int i = 0; i < frameFences.length; i++) {
+            if (frameFences[i] != 0) {
+                glDeleteSync(frameFences[i]);
+                frameFences[i] = 0;
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.joml.Vector3ic;
 import net.roguelogix.phosphophyllite.util.VectorUtil;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.util.PointerWrapper;
+import net.roguelogix.quartz.internal.util.PointerWriter;
 import org.lwjgl.system.MemoryStack;
 
 import java.lang.ref.SoftReference;
@@ -26,6 +27,10 @@ import static org.lwjgl.opengl.GL45C.*;
 // TODO: 3d lookup texture
 public class GL46LightEngine {
     private static final int CHUNK_UPDATES_PER_FRAME = 16;
+    // while over the VRAM budget, fewer updates means less staging and unpack traffic
+    private static final int CHUNK_UPDATES_PER_FRAME_OVER_BUDGET = CHUNK_UPDATES_PER_FRAME / 4;
+    // R16UI, for each of the 6 textures
+    private static final long LAYER_BYTES = (long) GL46Statics.LIGHT_SPARE_TEXTURE_SIZE.x() * GL46Statics.LIGHT_SPARE_TEXTURE_SIZE.y() * 2 * 6;
     private static boolean allocsDirty = false;
     private static final Long2ReferenceOpenHashMap<SoftReference<Chunk>> allChunks = new Long2ReferenceOpenHashMap<>();
     private static final Long2ReferenceOpenHashMap<WeakReference<ChunkHandle>> chunkHandles = new Long2ReferenceOpenHashMap<>();
@@ -41,12 +46,14 @@ public class GL46LightEngine {
     }
     
     private static final BooleanArrayList residentLayers = new BooleanArrayList(GL46Statics.LIGHT_SPARE_TEXTURE_SIZE.z());
+    private static int residentLayerCount = 0;
     
     private static final int[] intermediateTextures = new int[6];
     private static int intermediateTextureDepth = GL46Statics.LIGHT_TEXTURE_BLOCK_DEPTH;
     private static final Vector3i virtualPageSize = new Vector3i();
     
-    private static final GL46Buffer rawDataBuffer = new GL46Buffer(0);
+    // filled through the staging ring, so the CPU never writes over data a previous update may still be reading
+    private static final GL46Buffer rawDataBuffer = new GL46Buffer(Buffer.Options.GPU_ONLY);
     
     private static PointerWrapper lookupData = PointerWrapper.alloc(64 * 64 * 24 * 2);
     private static Vector3i lookupOffset = new Vector3i();
@@ -206,6 +213,7 @@ public class GL46LightEngine {
             }
             freeCommitedIndices += 60;
             residentLayers.set(layerIndex, true);
+            residentLayerCount++;
             
             short index = indices.popShort();
             freeCommitedIndices--;
@@ -225,10 +233,12 @@ public class GL46LightEngine {
         }
         final var indices = freeIndices.get(layerIndex);
         indices.add(subIndex);
-        if (freeIndices.size() != 60) {
+        freeCommitedIndices++;
+        if (indices.size() != 60) {
             return;
         }
-        if (freeCommitedIndices <= 120) {
+        // normally keep a couple layers worth of slack, over budget, release every empty layer
+        if (freeCommitedIndices <= (GL46MemoryBudget.overBudget() ? 0 : 120)) {
             return;
         }
         if (GL46Statics.SPARSE_TEXTURE_ENABLED) {
@@ -238,9 +248,43 @@ public class GL46LightEngine {
         }
         freeCommitedIndices -= 60;
         residentLayers.set(layerIndex, false);
+        residentLayerCount--;
+    }
+    
+    /**
+     * @return bytes of the light textures that are actually backed by memory
+     */
+    static long textureBytes() {
+        if (GL46Statics.SPARSE_TEXTURE_ENABLED) {
+            return residentLayerCount * LAYER_BYTES;
+        }
+        return intermediateTextureDepth * LAYER_BYTES;
+    }
+    
+    /**
+     * Drops the cache of chunks nothing is using anymore, their light index and raw data is freed once they are collected
+     * chunks in use are held by their handle, so are untouched
+     */
+    private static void evictCachedChunks() {
+        if (allChunks.size() <= chunkHandles.size()) {
+            return;
+        }
+        final var iterator = allChunks.long2ReferenceEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            final var entry = iterator.next();
+            final var handleRef = chunkHandles.get(entry.getLongKey());
+            if (handleRef != null && handleRef.get() != null) {
+                continue;
+            }
+            entry.getValue().clear();
+            iterator.remove();
+        }
     }
     
     public static void update(BlockAndTintGetter blockAndTintGetter) {
+        if (GL46MemoryBudget.overBudget()) {
+            evictCachedChunks();
+        }
         runLightingUpdates(blockAndTintGetter);
         runAllocUpdates();
     }
@@ -258,6 +302,7 @@ public class GL46LightEngine {
             glBindImageTexture(i + 1, intermediateTextures[i], 0, true, 0, GL_WRITE_ONLY, GL_R16UI);
         }
         int updatesThisFrame = 0;
+        final int updateLimit = GL46MemoryBudget.overBudget() ? CHUNK_UPDATES_PER_FRAME_OVER_BUDGET : CHUNK_UPDATES_PER_FRAME;
         for (int i = 0; i < dirtyChunks.size(); i++) {
             final var value = dirtyChunks.get(i);
             final var chunk = value.get();
@@ -273,7 +318,7 @@ public class GL46LightEngine {
                 dirtyChunks.remove(value);
                 i--;
             }
-            if (updatesThisFrame >= CHUNK_UPDATES_PER_FRAME) {
+            if (updatesThisFrame >= updateLimit) {
                 break;
             }
         }
@@ -314,8 +359,10 @@ public class GL46LightEngine {
             texelIndex += tempVec.x;
             lookupData.putShortIdx(texelIndex, lookupIndex);
         }
-        // this should be updated rarely enough that mapping and/or using two buffers doesnt really make sense
-        nglNamedBufferSubData(lookupBuffer.handle(), 0, lookupData.size(), lookupData.pointer());
+        if (!GL46StagingRing.upload(lookupData, lookupBuffer.handle(), 0)) {
+            // ring is full, try again next frame
+            allocsDirty = true;
+        }
     }
     
     public static void sectionDirty(int x, int y, int z) {
@@ -398,8 +445,8 @@ public class GL46LightEngine {
         public final long sectionPos;
         
         public final short lightChunkIndex;
-        private final GL46Buffer.Allocation alloc;
-        private final long[] lastSync;
+        // handle, chunks are churned constantly as the player moves, so no allocation object or cleaner for the buffer space
+        private final long rawDataHandle;
         
         private boolean dirty = false;
         
@@ -407,48 +454,33 @@ public class GL46LightEngine {
             this.sectionPos = pos;
             final var lightChunkIndex = allocLightChunk();
             dirty = true;
-            final var alloc = rawDataBuffer.alloc(12288, 12288);
-            final var lastSync = new long[1];
+            // SSBO binding offset alignment is at most 256, and every chunk is the same size, so the general allocator packs these perfectly
+            final var rawDataHandle = rawDataBuffer.allocHandle(12288, 256);
             QuartzCore.mainThreadClean(this, () -> {
-                if (lastSync[0] != 0) {
-                    glClientWaitSync(lastSync[0], GL_SYNC_FLUSH_COMMANDS_BIT, 0);
-                    glDeleteSync(lastSync[0]);
-                }
-                alloc.free();
+                rawDataBuffer.freeHandle(rawDataHandle);
                 freeLightChunk(lightChunkIndex);
             });
             this.lightChunkIndex = lightChunkIndex;
-            this.alloc = alloc;
-            this.lastSync = lastSync;
+            this.rawDataHandle = rawDataHandle;
         }
         
         private boolean update(BlockAndTintGetter blockAndTintGetter, GL46Buffer.Allocation unpackAllocation) {
             if (!dirty) {
                 return false;
             }
-            dirty = false;
-            if (lastSync[0] != 0) {
-                // need to wait for previous compute to finish before writing over the memory
-                // given how slow minecraft is, this should basically never actually cause a return, but it might,
-                final var waitResult = glClientWaitSync(lastSync[0], GL_SYNC_FLUSH_COMMANDS_BIT, 0);
-                if (waitResult == GL_WAIT_FAILED) {
-                    throw new IllegalStateException("OpenGL wait failed");
-                }
-                if (waitResult == GL_TIMEOUT_EXPIRED) {
-                    // come back next frame, should be done by then
-                    return false;
-                }
-                // already signaled or satisfied within the wait time, which is zero, so, already satisfied
-                glDeleteSync(lastSync[0]);
-                lastSync[0] = 0;
-            }
-            
             final int sectionBaseX = SectionPos.sectionToBlockCoord(SectionPos.x(sectionPos));
             final int sectionBaseY = SectionPos.sectionToBlockCoord(SectionPos.y(sectionPos));
             final int sectionBaseZ = SectionPos.sectionToBlockCoord(SectionPos.z(sectionPos));
             
             final var mutableBlockPos = new BlockPos.MutableBlockPos();
-            final var pointer = alloc.address();
+            final var pointer = GL46StagingRing.reserve(rawDataBuffer.handleSize(rawDataHandle));
+            if (pointer == null) {
+                // staging ring is full, come back next frame
+                return false;
+            }
+            dirty = false;
+            
+            final var writer = PointerWriter.of(pointer, 0, pointer.size());
             int index = 0;
             for (int x = -1; x < 17; x++) {
                 for (int y = -1; y < 17; y++) {
@@ -467,13 +499,15 @@ public class GL46LightEngine {
                             blockLight = blockAndTintGetter.getBrightness(LightLayer.BLOCK, mutableBlockPos);
                             skyLight = blockAndTintGetter.getBrightness(LightLayer.SKY, mutableBlockPos);
                         }
-                        pointer.putByte(index++, (byte) skyLight);
-                        pointer.putByte(index++, (byte) blockLight);
+                        writer.putByte(index++, (byte) skyLight);
+                        writer.putByte(index++, (byte) blockLight);
                     }
                 }
             }
             
-            glBindBufferRange(GL_SHADER_STORAGE_BUFFER, 0, alloc.allocator().handle(), alloc.offset(), alloc.size());
+            // copy is ordered before the dispatch, and after any previous dispatch that read the old data
+            GL46StagingRing.copy(pointer, 0, rawDataBuffer.handle(), rawDataBuffer.handleOffset(rawDataHandle), (int) pointer.size());
+            glBindBufferRange(GL_SHADER_STORAGE_BUFFER, 0, rawDataBuffer.handle(), rawDataBuffer.handleOffset(rawDataHandle), rawDataBuffer.handleSize(rawDataHandle));
             glBindBufferRange(GL_SHADER_STORAGE_BUFFER, 1, unpackAllocation.allocator().handle(), unpackAllocation.offset(), unpackAllocation.size());
             int lightChunkX = (lightChunkIndex >> 11) & 0x1F;
             int lightChunkY = (lightChunkIndex >> 10) & 0x1;
@@ -489,7 +523,6 @@ public class GL46LightEngine {
                 glTextureSubImage3D(intermediateTextures[i], 0, lightChunkX * 17, lightChunkY * 320, lightChunkZ, 17, 320, 1, GL_RED_INTEGER, GL_UNSIGNED_INT, offset);
             }
             
-            lastSync[0] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
             return true;
         }
     }
@@ -0,0 +1,127 @@
+package net.roguelogix.quartz.internal.gl46;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.BufferStatistics;
+import net.roguelogix.quartz.internal.QuartzCore;
+import org.lwjgl.system.MemoryStack;
+
+import java.util.List;
+
+import static org.lwjgl.opengl.ATIMeminfo.GL_TEXTURE_FREE_MEMORY_ATI;
+import static org.lwjgl.opengl.ATIMeminfo.GL_VBO_FREE_MEMORY_ATI;
+import static org.lwjgl.opengl.GL45C.glGetInteger;
+import static org.lwjgl.opengl.GL45C.glGetIntegerv;
+import static org.lwjgl.opengl.NVXGPUMemoryInfo.GL_GPU_MEMORY_INFO_CURRENT_AVAILABLE_VIDMEM_NVX;
+import static org.lwjgl.opengl.NVXGPUMemoryInfo.GL_GPU_MEMORY_INFO_TOTAL_AVAILABLE_MEMORY_NVX;
+
+/**
+ * Tracks how much VRAM Quartz is using against a budget, and flags when its over
+ * the budget is the configured one if set, otherwise its however much the driver says is free (NVX/ATI meminfo), leaving some headroom
+ * with neither, nothing is ever over budget
+ * <p>
+ * Nothing here frees anything, users check overBudget and back off, buffers trim sooner, the light engine evicts and updates less
+ */
+@NonnullDefault
+public class GL46MemoryBudget {
+    
+    // driver free memory below this is treated as over budget, whichever is larger
+    private static final long MIN_HEADROOM_BYTES = 256L * 1024 * 1024;
+    private static final int HEADROOM_TOTAL_FRACTION = 16;
+    // to leave the over budget state, usage has to drop this far under the limit, so it doesn't flip every check
+    private static final double HYSTERESIS = 0.9;
+    
+    private static long totalBytes = -1;
+    private static long availableBytes = -1;
+    private static long usedBytes = 0;
+    private static boolean overBudget = false;
+    private static int framesUntilCheck = 0;
+    private static int overBudgetChecks = 0;
+    
+    static void startup() {
+        if (GL46Statics.MEMORY_INFO_NVX) {
+            totalBytes = glGetInteger(GL_GPU_MEMORY_INFO_TOTAL_AVAILABLE_MEMORY_NVX) * 1024L;
+        }
+        QuartzCore.LOGGER.debug("VRAM budget source: " + (configuredBudget() > 0 ? "config" : GL46Statics.MEMORY_INFO_NVX ? "NVX" : GL46Statics.MEMORY_INFO_ATI ? "ATI" : "none"));
+    }
+    
+    static void shutdown() {
+        overBudget = false;
+        overBudgetChecks = 0;
+    }
+    
+    private static long configuredBudget() {
+        return GL46Config.INSTANCE.VRAM_BUDGET_MB * 1024L * 1024L;
+    }
+    
+    private static long queryAvailableBytes() {
+        if (GL46Statics.MEMORY_INFO_NVX) {
+            return glGetInteger(GL_GPU_MEMORY_INFO_CURRENT_AVAILABLE_VIDMEM_NVX) * 1024L;
+        }
+        if (GL46Statics.MEMORY_INFO_ATI) {
+            try (var stack = MemoryStack.stackPush()) {
+                // first value is the total free in the pool, in KiB
+                final var info = stack.mallocInt(4);
+                glGetIntegerv(GL_TEXTURE_FREE_MEMORY_ATI, info);
+                final long textureFree = info.get(0);
+                glGetIntegerv(GL_VBO_FREE_MEMORY_ATI, info);
+                return Math.min(textureFree, info.get(0)) * 1024L;
+            }
+        }
+        return -1;
+    }
+    
+    private static long headroom() {
+        if (totalBytes > 0) {
+            return Math.max(MIN_HEADROOM_BYTES, totalBytes / HEADROOM_TOTAL_FRACTION);
+        }
+        return MIN_HEADROOM_BYTES;
+    }
+    
+    /**
+     * Called once a frame, only actually checks every MEMORY_BUDGET_CHECK_INTERVAL frames
+     */
+    static void frameStart() {
+        if (--framesUntilCheck > 0) {
+            return;
+        }
+        framesUntilCheck = GL46Statics.MEMORY_BUDGET_CHECK_INTERVAL;
+        
+        final var bufferStats = BufferStatistics.aggregate();
+        usedBytes = bufferStats.capacity + GL46LightEngine.textureBytes() + GL46Statics.STAGING_RING_SIZE;
+        availableBytes = queryAvailableBytes();
+        
+        final double limitScale = overBudget ? HYSTERESIS : 1.0;
+        boolean over = false;
+        final long budget = configuredBudget();
+        if (budget > 0) {
+            over = usedBytes > budget * limitScale;
+        } else if (availableBytes >= 0) {
+            // other things (the game itself) use VRAM too, so this is against whats free, not what Quartz has
+            over = availableBytes * limitScale < headroom();
+        }
+        if (over && !overBudget) {
+            QuartzCore.LOGGER.debug("Quartz over VRAM budget, used: " + (usedBytes >> 20) + "MiB, available: " + (availableBytes >> 20) + "MiB");
+        }
+        overBudget = over;
+        if (over) {
+            overBudgetChecks++;
+        }
+    }
+    
+    /**
+     * Only changes at frame start
+     *
+     * @return if Quartz should be releasing memory instead of growing
+     */
+    public static boolean overBudget() {
+        return overBudget;
+    }
+    
+    public static void addDebugText(List<String> list) {
+        final var available = availableBytes >= 0 ? String.format("%.1f MiB", availableBytes / (1024.0 * 1024.0)) : "unknown";
+        list.add(String.format("VRAM: %.1f MiB used, %s free%s", usedBytes / (1024.0 * 1024.0), available, overBudget ? ", OVER BUDGET" : ""));
+        if (overBudgetChecks != 0) {
+            list.add("Over budget checks: " + overBudgetChecks);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package net.roguelogix.quartz.internal.gl46;
+
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.util.PointerWrapper;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL45C.*;
+
+/**
+ * Shared upload ring for getting data into GPU_ONLY buffers
+ * space is reserved and written on the CPU, then copied to the target on the GPU, nothing here ever waits on the GPU
+ * space is reused once GL46FrameSync says the frame it was reserved in has completed,
+ * if the ring is full, reserve returns null and the caller should try again next frame
+ */
+@NonnullDefault
+public class GL46StagingRing {
+    
+    // reservations are aligned to this, keeps the copies nicely aligned
+    private static final int ALIGNMENT = 256;
+    
+    private static int glBuffer = 0;
+    private static long mappedMemory = 0;
+    @Nullable
+    private static PointerWrapper mapping;
+    
+    // both are running totals, positions in the ring are these modulo the size, so full and empty aren't ambiguous
+    private static long head = 0;
+    private static long tail = 0;
+    // frame, and head at the end of the frames last reservation, one entry per frame that reserved anything
+    private static final LongArrayFIFOQueue frames = new LongArrayFIFOQueue();
+    private static final LongArrayFIFOQueue frameEnds = new LongArrayFIFOQueue();
+    
+    private static long bytesUploaded = 0;
+    private static long reservesFailed = 0;
+    
+    static void startup() {
+        glBuffer = glCreateBuffers();
+        final int flags = GL_MAP_PERSISTENT_BIT | GL_MAP_WRITE_BIT | GL_MAP_COHERENT_BIT;
+        glNamedBufferStorage(glBuffer, GL46Statics.STAGING_RING_SIZE, flags);
+        mappedMemory = nglMapNamedBufferRange(glBuffer, 0, GL46Statics.STAGING_RING_SIZE, flags);
+        mapping = new PointerWrapper(mappedMemory, GL46Statics.STAGING_RING_SIZE);
+        PointerWrapper.addAccessibleLocation(mapping);
+    }
+    
+    static void shutdown() {
+        if (mapping != null) {
+            PointerWrapper.removeAccessibleLocation(mapping);
+            mapping = null;
+        }
+        if (glBuffer != 0) {
+            glUnmapNamedBuffer(glBuffer);
+            glDeleteBuffers(glBuffer);
+            glBuffer = 0;
+        }
+        mappedMemory = 0;
+        head = tail = 0;
+        frames.clear();
+        frameEnds.clear();
+    }
+    
+    private static void reclaim() {
+        final long completedFrame = GL46FrameSync.completedFrame();
+        while (!frames.isEmpty() && frames.firstLong() <= completedFrame) {
+            frames.dequeueLong();
+            tail = frameEnds.dequeueLong();
+        }
+    }
+    
+    /**
+     * Reserves space in the ring, the returned pointer can be written to until the end of the current frame
+     * reservations never wrap, if one doesn't fit at the end of the ring, the rest of the ring is skipped
+     *
+     * @return pointer to the reserved space, or null if there isn't room this frame
+     */
+    @Nullable
+    public static PointerWrapper reserve(int size) {
+        if (size <= 0 || size > GL46Statics.STAGING_RING_SIZE) {
+            throw new IllegalArgumentException("Invalid staging reservation size " + size);
+        }
+        reclaim();
+        long start = head;
+        final int ringOffset = (int) (start % GL46Statics.STAGING_RING_SIZE);
+        if (ringOffset + size > GL46Statics.STAGING_RING_SIZE) {
+            start += GL46Statics.STAGING_RING_SIZE - ringOffset;
+        }
+        final long end = start + ((size + (ALIGNMENT - 1)) & -ALIGNMENT);
+        if (end - tail > GL46Statics.STAGING_RING_SIZE) {
+            reservesFailed++;
+            return null;
+        }
+        head = end;
+        final long currentFrame = GL46FrameSync.currentFrame();
+        if (!frames.isEmpty() && frames.lastLong() == currentFrame) {
+            frameEnds.dequeueLastLong();
+        } else {
+            frames.enqueue(currentFrame);
+        }
+        frameEnds.enqueue(end);
+        return new PointerWrapper(mappedMemory + (start % GL46Statics.STAGING_RING_SIZE), size);
+    }
+    
+    /**
+     * Copies from a reservation into another buffer, on the GPU, ordered with everything else submitted this frame
+     * the reservation must have been returned by reserve this frame
+     */
+    public static void copy(PointerWrapper reservation, int srcOffset, int dstBuffer, int dstOffset, int size) {
+        if (srcOffset < 0 || srcOffset + size > reservation.size()) {
+            throw new IllegalArgumentException("Staging copy out of reservation bounds");
+        }
+        glCopyNamedBufferSubData(glBuffer, dstBuffer, reservation.pointer() - mappedMemory + srcOffset, dstOffset, size);
+        bytesUploaded += size;
+    }
+    
+    /**
+     * Stages the data and copies it to the destination buffer
+     *
+     * @return if the upload was queued, false if the ring is full
+     */
+    public static boolean upload(PointerWrapper data, int dstBuffer, int dstOffset) {
+        final var reservation = reserve((int) data.size());
+        if (reservation == null) {
+            return false;
+        }
+        data.copyTo(reservation);
+        copy(reservation, 0, dstBuffer, dstOffset, (int) data.size());
+        return true;
+    }
+    
+    public static void addDebugText(List<String> list) {
+        list.add(String.format("Staging ring: %d KiB in use, %.1f MiB uploaded, %d full", (head - tail) / 1024, bytesUploaded / (1024.0 * 1024.0), reservesFailed));
+    }
+}
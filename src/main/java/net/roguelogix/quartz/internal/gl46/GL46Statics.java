@@ -5,7 +5,6 @@ import org.joml.Vector3ic;
 import net.roguelogix.quartz.internal.QuartzCore;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL46C;
-import org.lwjgl.opengl.NVXGPUMemoryInfo;
 import org.lwjgl.system.MemoryStack;
 
 import static net.roguelogix.quartz.internal.MagicNumbers.*;
@@ -18,8 +17,16 @@ public class GL46Statics {
     public static final boolean AVAILABLE;
     public static final boolean ALLOW_SPARSE_TEXTURE = GL46Config.INSTANCE.ALLOW_SPARSE_TEXTURE;
     public static final boolean SPARSE_TEXTURE_ENABLED;
+    public static final boolean MEMORY_INFO_NVX;
+    public static final boolean MEMORY_INFO_ATI;
     
     public static final int FRAMES_IN_FLIGHT = 3;
+    // per buffer, how much live data can be moved each frame when compacting
+    public static final int COMPACTION_BYTES_PER_FRAME = 256 * 1024;
+    // shared upload ring for GPU only buffers, needs to hold FRAMES_IN_FLIGHT frames worth of uploads
+    public static final int STAGING_RING_SIZE = 8 * 1024 * 1024;
+    // frames between VRAM budget checks, the check sums every buffer's stats
+    public static final int MEMORY_BUDGET_CHECK_INTERVAL = 30;
     
     public static final Vector3ic LIGHT_SPARE_TEXTURE_SIZE = new Vector3i(512, 640, 1024);
     public static final int LIGHT_TEXTURE_BLOCK_DEPTH = 32;
@@ -50,6 +57,8 @@ public class GL46Statics {
     static {
         QuartzCore.LOGGER.debug("Capability checking GL46Core");
         SPARSE_TEXTURE_ENABLED = checkSparseTextureSupport();
+        MEMORY_INFO_NVX = GL.getCapabilities().GL_NVX_gpu_memory_info;
+        MEMORY_INFO_ATI = !MEMORY_INFO_NVX && GL.getCapabilities().GL_ATI_meminfo;
         AVAILABLE = checkRequirements();
         if (AVAILABLE) {
             QuartzCore.LOGGER.debug("GL46Core available");
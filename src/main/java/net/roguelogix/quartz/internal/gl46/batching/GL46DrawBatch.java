@@ -45,13 +45,13 @@ public class GL46DrawBatch implements DrawBatchInternal {
         return toReturn;
     }
     
-    final MultiBuffer<GL46Buffer> instanceDataBuffer = new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT + 1, instanceDataOptions(GL46Statics.FRAMES_IN_FLIGHT));
+    final MultiBuffer<GL46Buffer> instanceDataBuffer = new MultiBuffer<>(true, GL46Statics.FRAMES_IN_FLIGHT + 1, instanceDataOptions(GL46Statics.FRAMES_IN_FLIGHT));
     
     final Reference2ReferenceMap<InternalMesh, GL46InstanceManager> instanceManagers = new Reference2ReferenceOpenHashMap<>();
     final ReferenceSet<GL46InstanceManager> instanceBatches = new ReferenceOpenHashSet<>();
     final FastArraySet<GL46InstanceManager> dirtyBatches = new FastArraySet<>();
     
-    final MultiBuffer<GL46Buffer> dynamicMatrixBuffer = new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, 0);
+    final MultiBuffer<GL46Buffer> dynamicMatrixBuffer = new MultiBuffer<>(true, GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.BUDDY_ALLOCATOR);
     final DynamicMatrixManager dynamicMatrixManager = new DynamicMatrixManager(dynamicMatrixBuffer);
     final DynamicMatrix IDENTITY_DYNAMIC_MATRIX = dynamicMatrixManager.createMatrix(null, null);
     
@@ -184,10 +184,12 @@ public class GL46DrawBatch implements DrawBatchInternal {
         
         // these updates are global frame specific, so they must be checked and done every frame
         dynamicMatrixManager.updateAll(drawInfo.deltaNano, drawInfo.partialTicks, drawInfo.playerPosition, drawInfo.playerSubBlock);
-        if (!dirtyBatches.isEmpty()) {
+        if (!dirtyBatches.isEmpty() || instanceDataBuffer.hasPendingWrites()) {
             if (instanceDataFences[currentFrame] != 0 && glIsSync(instanceDataFences[currentFrame])) {
                 glClientWaitSync(instanceDataFences[currentFrame], GL_SYNC_FLUSH_COMMANDS_BIT, -1);
             }
+            // changes from the other frames first, so anything written this frame lands on top of them
+            instanceDataBuffer.replicatePendingWrites();
             for (int i = 0; i < dirtyBatches.size(); i++) {
                 final var batch = dirtyBatches.get(i);
                 if (batch.writeUpdates()) {
@@ -201,6 +203,11 @@ public class GL46DrawBatch implements DrawBatchInternal {
                 i--;
             }
         }
+        if (instanceDataBuffer.compact(GL46Statics.COMPACTION_BYTES_PER_FRAME) != 0) {
+            // base instances moved
+            setIndirectInfoDirty();
+        }
+        instanceDataBuffer.trim();
         
         if (!enabled) {
             return;
@@ -246,7 +253,7 @@ public class GL46DrawBatch implements DrawBatchInternal {
             }
             
             final var indirectBuffer = indirectBuffers[newBufferIndex];
-            final var alloc = indirectBufferAllocs[newBufferIndex] = indirectBuffer.realloc(indirectBufferAllocs[newBufferIndex], totalChunks * 4 * INT_BYTE_SIZE, totalChunks * 5 * INT_BYTE_SIZE, false);
+            final var alloc = indirectBufferAllocs[newBufferIndex] = indirectBuffer.realloc(indirectBufferAllocs[newBufferIndex], totalChunks * 4 * INT_BYTE_SIZE, INT_BYTE_SIZE, false);
             
             for (int i = 0; i < GL46Statics.FRAMES_IN_FLIGHT; i++) {
                 indirectBuffer.setActiveFrame(i);
@@ -259,7 +266,7 @@ public class GL46DrawBatch implements DrawBatchInternal {
                     final long packedOffsets = ((long) indirectByteOffset << 32) | indirectDrawCount;
                     int totalVertices = 0;
                     for (final var chunk : value.getValue()) {
-                        final var indirectInfo = chunk.indirectDrawInfo(i);
+                        final var indirectInfo = chunk.indirectDrawInfo();
                         totalVertices += indirectInfo.elementCount() * indirectInfo.instanceCount();
                         // feedback is always done as draw arrays of points, MC handles the element buffer
                         pointer.putIntIdx(indexOffset++, indirectInfo.elementCount()); // (vertex) count
@@ -281,11 +288,13 @@ public class GL46DrawBatch implements DrawBatchInternal {
             indirectDirty = false;
         }
         
+        // writes redirected away from a buffer's pending resize copy have to land before the compute reads them
+        GL46Buffer.flushRedirectedWrites();
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, dynamicMatrixBuffer.activeBuffer().handle());
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, instanceDataBuffer.activeBuffer().handle());
         glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, instanceDataBuffer.buffer(GL46Statics.FRAMES_IN_FLIGHT).handle());
         for (final var value : instanceBatches) {
-            glUniform1ui(0, value.instanceDataAlloc.activeAllocation().offset() / GL46Statics.INSTANCE_DATA_BYTE_SIZE);
+            glUniform1ui(0, value.baseInstance());
             // TODO: cubify, my driver supports up to intmax here, not all do
             glDispatchCompute(value.instanceCount(), 1, 1);
         }
@@ -322,7 +331,7 @@ public class GL46DrawBatch implements DrawBatchInternal {
     
     private boolean indirectDirty = false;
     private int currentIndirectBuffer = 0;
-    private MultiBuffer<GL46Buffer>[] indirectBuffers = new MultiBuffer[]{new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.CPU_MEMORY), new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.CPU_MEMORY)};
+    private MultiBuffer<GL46Buffer>[] indirectBuffers = new MultiBuffer[]{new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.CPU_MEMORY | Buffer.Options.LINEAR_ALLOCATOR), new MultiBuffer<>(GL46Statics.FRAMES_IN_FLIGHT, Buffer.Options.CPU_MEMORY | Buffer.Options.LINEAR_ALLOCATOR)};
     private MultiBuffer<GL46Buffer>.Allocation[] indirectBufferAllocs = new MultiBuffer.Allocation[2];
     private long[] indirectBufferFences = new long[2];
     
@@ -26,8 +26,8 @@ public class GL46DrawChunk {
         vertexCount = component.vertexCount();
     }
     
-    public IndirectDrawInfo indirectDrawInfo(int frame) {
-        return new IndirectDrawInfo(vertexCount, manager.instanceCount(), baseVertex, manager.baseInstance(frame));
+    public IndirectDrawInfo indirectDrawInfo() {
+        return new IndirectDrawInfo(vertexCount, manager.instanceCount(), baseVertex, manager.baseInstance());
     }
     
     public int totalVertices() {
@@ -6,7 +6,7 @@ import net.roguelogix.quartz.DrawBatch;
 import net.roguelogix.quartz.DynamicMatrix;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.DynamicMatrixManager;
-import net.roguelogix.quartz.internal.gl46.GL46Core;
+import net.roguelogix.quartz.internal.util.PointerWriter;
 
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
@@ -39,7 +39,7 @@ public class GL46Instance implements DrawBatch.Instance {
     @Nullable
     AABB aabb;
     
-    private int dirtyForFrames;
+    private boolean dirty;
     
     GL46Instance(GL46InstanceManager manager, int initialLocation) {
         var location = new Location(initialLocation);
@@ -52,13 +52,12 @@ public class GL46Instance implements DrawBatch.Instance {
         if (location.location == -1) {
             throw new IllegalStateException("Attempt to dirty deleted instance");
         }
-        if(dirtyForFrames == FRAMES_IN_FLIGHT){
-            // already dirtied this frame
+        if (dirty) {
             return;
         }
         manager.dirtyInstances.add(selfWeakRef);
         manager.setDirty();
-        dirtyForFrames = FRAMES_IN_FLIGHT;
+        dirty = true;
     }
     
     @Override
@@ -129,21 +128,25 @@ public class GL46Instance implements DrawBatch.Instance {
         if (!dirty()) {
             return false;
         }
-        final var instanceGPUMemory = manager.instanceDataAlloc.activeAllocation().address().slice((long) location.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
+        final int recordOffset = location.location * INSTANCE_DATA_BYTE_SIZE;
+        final var instanceGPUMemory = PointerWriter.of(manager.instanceDataAlloc.activeAllocation().address(), recordOffset, INSTANCE_DATA_BYTE_SIZE);
         
         // TODO: dont need to write the entire instance data if only one things changed
         instanceGPUMemory.putMatrix4f(STATIC_MATRIX_OFFSET, staticMatrix);
         instanceGPUMemory.putMatrix3x4f(STATIC_NORMAL_MATRIX_OFFSET, normalMatrix);
         // these "overlap" because the normal matrix is only a mat3, so the last column is unused, and thus i can fit this info into it
         instanceGPUMemory.putVector3i(WORLD_POSITION_OFFSET, position);
-        instanceGPUMemory.putInt(DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id(GL46Core.INSTANCE.frameInFlight()));
+        // matrix buffer is lockstep, so the id is the same in every frame
+        instanceGPUMemory.putInt(DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id());
+        // written once, the other frames get a copy as they come around
+        manager.instanceDataAlloc.written(recordOffset, INSTANCE_DATA_BYTE_SIZE);
         
-        dirtyForFrames--;
-        return dirty();
+        dirty = false;
+        return false;
     }
     
     boolean dirty() {
-        return dirtyForFrames > 0;
+        return dirty;
     }
     
     void printAllInstanceData() {
@@ -182,8 +182,8 @@ public class GL46InstanceManager {
         return instances.size();
     }
     
-    public int baseInstance(int frame) {
-        return instanceDataAlloc.allocation(frame).offset() / GL46Statics.INSTANCE_DATA_BYTE_SIZE;
+    public int baseInstance() {
+        return instanceDataAlloc.offset() / GL46Statics.INSTANCE_DATA_BYTE_SIZE;
     }
     
     public boolean writeUpdates() {
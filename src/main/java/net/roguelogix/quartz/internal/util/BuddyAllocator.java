@@ -0,0 +1,199 @@
+package net.roguelogix.quartz.internal.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+/**
+ * Power of two buddy allocator
+ * Every block is a power of two in size and naturally aligned to its size, so alignment requests are free
+ * Good for uniformly sized power of two allocations, wasteful for anything else
+ * Block handles are the block offset
+ */
+@NonnullDefault
+public class BuddyAllocator implements RangeAllocator {
+    
+    private static final int MIN_ORDER = 4;
+    private static final int MAX_ORDER = 30;
+    
+    private final IntLinkedOpenHashSet[] freeBlocks = new IntLinkedOpenHashSet[MAX_ORDER + 1];
+    private int nonEmptyOrders = 0;
+    private final Int2ByteOpenHashMap liveOrders = new Int2ByteOpenHashMap();
+    private int capacity = 0;
+    private int freeBytes = 0;
+    
+    public BuddyAllocator(int capacity) {
+        for (int i = 0; i < freeBlocks.length; i++) {
+            freeBlocks[i] = new IntLinkedOpenHashSet();
+        }
+        liveOrders.defaultReturnValue((byte) -1);
+        grow(capacity);
+    }
+    
+    private static int orderFor(int size) {
+        if (size <= (1 << MIN_ORDER)) {
+            return MIN_ORDER;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+    
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+    
+    @Override
+    public int offset(int block) {
+        return block;
+    }
+    
+    @Override
+    public int size(int block) {
+        final int order = liveOrders.get(block);
+        return order == -1 ? 0 : 1 << order;
+    }
+    
+    @Override
+    public boolean isLive(int block) {
+        return liveOrders.containsKey(block);
+    }
+    
+    @Override
+    public int alloc(int size, int alignment) {
+        final int needed = Math.max(Math.max(size, alignment), 1);
+        if (needed > (1 << MAX_ORDER)) {
+            return NULL_BLOCK;
+        }
+        final int order = orderFor(needed);
+        final int availableOrders = nonEmptyOrders & (~0 << order);
+        if (availableOrders == 0) {
+            return NULL_BLOCK;
+        }
+        int currentOrder = Integer.numberOfTrailingZeros(availableOrders);
+        final int block = freeBlocks[currentOrder].removeFirstInt();
+        freeBytes -= 1 << currentOrder;
+        if (freeBlocks[currentOrder].isEmpty()) {
+            nonEmptyOrders &= ~(1 << currentOrder);
+        }
+        while (currentOrder > order) {
+            // front half is kept, back half is its buddy
+            currentOrder--;
+            addFree(block + (1 << currentOrder), currentOrder);
+        }
+        liveOrders.put(block, (byte) order);
+        return block;
+    }
+    
+    @Override
+    public boolean resize(int block, int newSize) {
+        int order = liveOrders.get(block);
+        if (order == -1) {
+            throw new IllegalArgumentException("Cannot resize non-live block");
+        }
+        final int newOrder = orderFor(Math.max(newSize, 1));
+        if (newOrder == order) {
+            return true;
+        }
+        if (newOrder < order) {
+            while (order > newOrder) {
+                order--;
+                addFree(block + (1 << order), order);
+            }
+            liveOrders.put(block, (byte) newOrder);
+            return true;
+        }
+        if (newOrder > MAX_ORDER) {
+            return false;
+        }
+        // can only grow in place if this is the front buddy at every level, and every back buddy is free
+        for (int i = order; i < newOrder; i++) {
+            if ((block & (1 << i)) != 0 || !freeBlocks[i].contains(block + (1 << i))) {
+                return false;
+            }
+        }
+        for (int i = order; i < newOrder; i++) {
+            removeFree(block + (1 << i), i);
+        }
+        liveOrders.put(block, (byte) newOrder);
+        return true;
+    }
+    
+    @Override
+    public void free(int block) {
+        final int order = liveOrders.remove(block);
+        if (order == -1) {
+            throw new IllegalArgumentException("Cannot free non-live block");
+        }
+        release(block, order);
+    }
+    
+    @Override
+    public void grow(int newCapacity) {
+        if (newCapacity <= capacity) {
+            return;
+        }
+        int offset = capacity;
+        capacity = newCapacity;
+        while (offset < newCapacity) {
+            // largest naturally aligned block that starts here and fits
+            int order = Math.min(offset == 0 ? MAX_ORDER : Integer.numberOfTrailingZeros(offset), MAX_ORDER);
+            while ((1L << order) > newCapacity - offset) {
+                order--;
+            }
+            if (order >= MIN_ORDER) {
+                release(offset, order);
+            }
+            offset += 1 << order;
+        }
+    }
+    
+    @Override
+    public int freeBytes() {
+        return freeBytes;
+    }
+    
+    @Override
+    public int largestFreeBlock() {
+        return nonEmptyOrders == 0 ? 0 : Integer.highestOneBit(nonEmptyOrders);
+    }
+    
+    @Override
+    public int requiredCapacity(int size, int alignment) {
+        final int blockSize = 1 << orderFor(Math.max(Math.max(size, alignment), 1));
+        return RangeAllocator.alignUp(capacity, blockSize) + blockSize;
+    }
+    
+    @Override
+    public boolean isAtEnd(int block) {
+        final int blockSize = size(block);
+        return block + blockSize == capacity && (block & blockSize) == 0;
+    }
+    
+    private void release(int block, int order) {
+        while (order < MAX_ORDER) {
+            final int buddy = block ^ (1 << order);
+            if (!freeBlocks[order].contains(buddy)) {
+                break;
+            }
+            removeFree(buddy, order);
+            block = Math.min(block, buddy);
+            order++;
+        }
+        addFree(block, order);
+    }
+    
+    private void addFree(int block, int order) {
+        freeBlocks[order].add(block);
+        freeBytes += 1 << order;
+        nonEmptyOrders |= 1 << order;
+    }
+    
+    private void removeFree(int block, int order) {
+        final var blocks = freeBlocks[order];
+        blocks.remove(block);
+        freeBytes -= 1 << order;
+        if (blocks.isEmpty()) {
+            nonEmptyOrders &= ~(1 << order);
+        }
+    }
+}
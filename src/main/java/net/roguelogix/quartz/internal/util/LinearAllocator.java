@@ -0,0 +1,127 @@
+package net.roguelogix.quartz.internal.util;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+/**
+ * Bump allocator, for per-frame scratch and other things that don't hold many allocations at once
+ * Only the top allocation can be grown in place, and space is only reclaimed when the top allocation is freed or everything is freed
+ * Block handles are the block offset
+ */
+@NonnullDefault
+public class LinearAllocator implements RangeAllocator {
+    
+    private final Int2IntOpenHashMap liveSizes = new Int2IntOpenHashMap();
+    private int capacity;
+    private int top = 0;
+    
+    public LinearAllocator(int capacity) {
+        this.capacity = capacity;
+        liveSizes.defaultReturnValue(-1);
+    }
+    
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+    
+    @Override
+    public int offset(int block) {
+        return block;
+    }
+    
+    @Override
+    public int size(int block) {
+        return liveSizes.get(block);
+    }
+    
+    @Override
+    public boolean isLive(int block) {
+        return liveSizes.containsKey(block);
+    }
+    
+    @Override
+    public int alloc(int size, int alignment) {
+        size = Math.max(size, 1);
+        final int offset = RangeAllocator.alignUp(top, Math.max(alignment, 1));
+        if ((long) offset + size > capacity) {
+            return NULL_BLOCK;
+        }
+        top = offset + size;
+        liveSizes.put(offset, size);
+        return offset;
+    }
+    
+    @Override
+    public boolean resize(int block, int newSize) {
+        final int size = liveSizes.get(block);
+        if (size == -1) {
+            throw new IllegalArgumentException("Cannot resize non-live block");
+        }
+        newSize = Math.max(newSize, 1);
+        if (block + size == top) {
+            if ((long) block + newSize > capacity) {
+                return false;
+            }
+            top = block + newSize;
+        } else if (newSize > size) {
+            return false;
+        }
+        // shrinking something not on top just wastes the tail until the next reset
+        liveSizes.put(block, newSize);
+        return true;
+    }
+    
+    @Override
+    public void free(int block) {
+        final int size = liveSizes.remove(block);
+        if (size == -1) {
+            throw new IllegalArgumentException("Cannot free non-live block");
+        }
+        if (liveSizes.isEmpty()) {
+            top = 0;
+        } else if (block + size == top) {
+            top = block;
+        }
+    }
+    
+    @Override
+    public void grow(int newCapacity) {
+        capacity = Math.max(capacity, newCapacity);
+    }
+    
+    @Override
+    public int freeBytes() {
+        // anything freed below the top isn't reusable until a reset
+        return capacity - top;
+    }
+    
+    @Override
+    public int largestFreeBlock() {
+        return capacity - top;
+    }
+    
+    @Override
+    public int trailingFreeOffset() {
+        return top;
+    }
+    
+    @Override
+    public boolean shrink(int newCapacity) {
+        if (top > newCapacity) {
+            return false;
+        }
+        capacity = newCapacity;
+        return true;
+    }
+    
+    @Override
+    public int requiredCapacity(int size, int alignment) {
+        return RangeAllocator.alignUp(top, Math.max(alignment, 1)) + Math.max(size, 1);
+    }
+    
+    @Override
+    public boolean isAtEnd(int block) {
+        return block + liveSizes.get(block) == top;
+    }
+}
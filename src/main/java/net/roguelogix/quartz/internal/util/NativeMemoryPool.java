@@ -0,0 +1,278 @@
+package net.roguelogix.quartz.internal.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import org.lwjgl.system.MemoryUtil;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.roguelogix.quartz.internal.QuartzDebug.DEBUG;
+
+/**
+ * Power of two size class pool behind PointerWrapper.alloc/free
+ * freed blocks go to a small per thread cache first, then a shared per class pool, and only then back to malloc
+ * anything larger than the largest class goes straight to malloc
+ * <p>
+ * Blocks are the full class size, but the PointerWrapper handed out is the requested size, so debug checks still catch writes past it
+ * Thread caches are locked, only ever contended by releasePooled/reclaimDeadThreadCaches, so other threads' caches can be drained
+ * caches of threads that have died are handed back to the shared pools by reclaimDeadThreadCaches, called every frame
+ * Thread safe
+ */
+@NonnullDefault
+public class NativeMemoryPool {
+    
+    private static final int MIN_CLASS_SHIFT = 8;
+    private static final int MAX_CLASS_SHIFT = 20;
+    private static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    // caps are in bytes, so small classes can cache more blocks than big ones
+    private static final long THREAD_CACHE_BYTES = 256 * 1024;
+    private static final long SHARED_POOL_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_THREAD_CACHE_BLOCKS = 8;
+    
+    private static final LongArrayList[] sharedPools = new LongArrayList[CLASS_COUNT];
+    
+    static {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sharedPools[i] = new LongArrayList();
+        }
+    }
+    
+    private static class ThreadCache {
+        private final long[][] blocks = new long[CLASS_COUNT][];
+        private final int[] counts = new int[CLASS_COUNT];
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        
+        private ThreadCache() {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                blocks[i] = new long[threadCacheBlocks(i)];
+            }
+            synchronized (allThreadCaches) {
+                allThreadCaches.add(this);
+            }
+        }
+        
+        private synchronized void drain() {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                for (int j = 0; j < counts[i]; j++) {
+                    MemoryUtil.nmemFree(blocks[i][j]);
+                }
+                counts[i] = 0;
+            }
+        }
+        
+        private synchronized void drainToSharedPools() {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                for (int j = 0; j < counts[i]; j++) {
+                    releaseToSharedPool(i, blocks[i][j]);
+                }
+                counts[i] = 0;
+            }
+        }
+        
+        private boolean ownerDead() {
+            final var thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+    
+    private static final ThreadLocal<ThreadCache> threadCaches = ThreadLocal.withInitial(ThreadCache::new);
+    // every thread's cache, so releasePooled can reach the ones on threads that aren't the one calling it
+    private static final ObjectArrayList<ThreadCache> allThreadCaches = new ObjectArrayList<>();
+    
+    // per class, requested bytes currently handed out
+    private static final AtomicLongArray liveBytes = new AtomicLongArray(CLASS_COUNT + 1);
+    private static final AtomicLongArray liveBlocks = new AtomicLongArray(CLASS_COUNT + 1);
+    private static final AtomicLongArray allocs = new AtomicLongArray(CLASS_COUNT + 1);
+    // allocs that were served from a cache or the shared pool instead of malloc
+    private static final AtomicLongArray reused = new AtomicLongArray(CLASS_COUNT + 1);
+    
+    public record ClassStatistics(long blockSize, long liveBytes, long liveBlocks, long allocs, long reused, long pooledBlocks) {
+    }
+    
+    /**
+     * @return class index, or CLASS_COUNT for sizes that aren't pooled
+     */
+    private static int sizeClass(long size) {
+        if (size > (1L << MAX_CLASS_SHIFT)) {
+            return CLASS_COUNT;
+        }
+        if (size <= (1L << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        return (64 - Long.numberOfLeadingZeros(size - 1)) - MIN_CLASS_SHIFT;
+    }
+    
+    private static long classSize(int sizeClass) {
+        return 1L << (sizeClass + MIN_CLASS_SHIFT);
+    }
+    
+    private static int threadCacheBlocks(int sizeClass) {
+        return (int) Math.max(1, Math.min(MAX_THREAD_CACHE_BLOCKS, THREAD_CACHE_BYTES / classSize(sizeClass)));
+    }
+    
+    private static int sharedPoolBlocks(int sizeClass) {
+        return (int) Math.max(1, SHARED_POOL_BYTES / classSize(sizeClass));
+    }
+    
+    static long alloc(long size) {
+        final int sizeClass = sizeClass(size);
+        allocs.incrementAndGet(sizeClass);
+        liveBytes.addAndGet(sizeClass, size);
+        liveBlocks.incrementAndGet(sizeClass);
+        if (sizeClass == CLASS_COUNT) {
+            return MemoryUtil.nmemAlloc(size);
+        }
+        final var cache = threadCaches.get();
+        synchronized (cache) {
+            if (cache.counts[sizeClass] > 0) {
+                reused.incrementAndGet(sizeClass);
+                return cache.blocks[sizeClass][--cache.counts[sizeClass]];
+            }
+        }
+        final var pool = sharedPools[sizeClass];
+        synchronized (pool) {
+            if (!pool.isEmpty()) {
+                reused.incrementAndGet(sizeClass);
+                return pool.popLong();
+            }
+        }
+        return MemoryUtil.nmemAlloc(classSize(sizeClass));
+    }
+    
+    static void free(long pointer, long size) {
+        final int sizeClass = sizeClass(size);
+        liveBytes.addAndGet(sizeClass, -size);
+        liveBlocks.decrementAndGet(sizeClass);
+        if (sizeClass == CLASS_COUNT) {
+            MemoryUtil.nmemFree(pointer);
+            return;
+        }
+        final var cache = threadCaches.get();
+        synchronized (cache) {
+            if (cache.counts[sizeClass] < cache.blocks[sizeClass].length) {
+                cache.blocks[sizeClass][cache.counts[sizeClass]++] = pointer;
+                return;
+            }
+        }
+        releaseToSharedPool(sizeClass, pointer);
+    }
+    
+    private static void releaseToSharedPool(int sizeClass, long pointer) {
+        final var pool = sharedPools[sizeClass];
+        synchronized (pool) {
+            if (pool.size() < sharedPoolBlocks(sizeClass)) {
+                pool.add(pointer);
+                return;
+            }
+        }
+        MemoryUtil.nmemFree(pointer);
+    }
+    
+    /**
+     * @return new pointer, the block is only moved if the size class changes
+     */
+    static long realloc(long pointer, long oldSize, long newSize) {
+        final int oldClass = sizeClass(oldSize);
+        final int newClass = sizeClass(newSize);
+        if (oldClass == CLASS_COUNT && newClass == CLASS_COUNT) {
+            liveBytes.addAndGet(CLASS_COUNT, newSize - oldSize);
+            return MemoryUtil.nmemRealloc(pointer, newSize);
+        }
+        if (oldClass == newClass) {
+            liveBytes.addAndGet(oldClass, newSize - oldSize);
+            return pointer;
+        }
+        final long newPointer = alloc(newSize);
+        MemoryUtil.memCopy(pointer, newPointer, Math.min(oldSize, newSize));
+        free(pointer, oldSize);
+        return newPointer;
+    }
+    
+    /**
+     * Hands the cached blocks of threads that have died (finished background workers) back to the shared pools, and drops their caches
+     * cheap when nothing died, it's just a liveness check per thread that ever allocated
+     */
+    public static void reclaimDeadThreadCaches() {
+        synchronized (allThreadCaches) {
+            for (int i = 0; i < allThreadCaches.size(); i++) {
+                final var cache = allThreadCaches.get(i);
+                if (!cache.ownerDead()) {
+                    continue;
+                }
+                cache.drainToSharedPools();
+                allThreadCaches.set(i, allThreadCaches.get(allThreadCaches.size() - 1));
+                allThreadCaches.pop();
+                i--;
+            }
+        }
+    }
+    
+    /**
+     * Frees everything in the shared pools and every thread's cache, caches of threads that have died are dropped
+     */
+    public static void releasePooled() {
+        synchronized (allThreadCaches) {
+            for (int i = 0; i < allThreadCaches.size(); i++) {
+                final var cache = allThreadCaches.get(i);
+                cache.drain();
+                if (cache.ownerDead()) {
+                    allThreadCaches.remove(i);
+                    i--;
+                }
+            }
+        }
+        for (final var pool : sharedPools) {
+            synchronized (pool) {
+                for (int i = 0; i < pool.size(); i++) {
+                    MemoryUtil.nmemFree(pool.getLong(i));
+                }
+                pool.clear();
+            }
+        }
+    }
+    
+    /**
+     * @return stats for each size class, and a last entry for unpooled allocations, with a block size of 0
+     */
+    public static ClassStatistics[] statistics() {
+        final var stats = new ClassStatistics[CLASS_COUNT + 1];
+        for (int i = 0; i <= CLASS_COUNT; i++) {
+            long pooled = 0;
+            if (i < CLASS_COUNT) {
+                final var pool = sharedPools[i];
+                synchronized (pool) {
+                    pooled = pool.size();
+                }
+            }
+            stats[i] = new ClassStatistics(i < CLASS_COUNT ? classSize(i) : 0, liveBytes.get(i), liveBlocks.get(i), allocs.get(i), reused.get(i), pooled);
+        }
+        return stats;
+    }
+    
+    public static void addDebugText(List<String> list) {
+        long live = 0;
+        long pooledBytes = 0;
+        long allocCount = 0;
+        long reusedCount = 0;
+        final var allStats = statistics();
+        for (final var stats : allStats) {
+            live += stats.liveBytes();
+            pooledBytes += stats.pooledBlocks() * stats.blockSize();
+            allocCount += stats.allocs();
+            reusedCount += stats.reused();
+        }
+        list.add(String.format("Native memory: %.1f MiB live, %.1f MiB pooled, %.0f%% reused", live / (1024.0 * 1024.0), pooledBytes / (1024.0 * 1024.0), allocCount == 0 ? 0 : reusedCount * 100.0 / allocCount));
+        if (DEBUG) {
+            for (final var stats : allStats) {
+                if (stats.allocs() == 0) {
+                    continue;
+                }
+                final var name = stats.blockSize() == 0 ? "large" : (stats.blockSize() / 1024.0) + " KiB";
+                list.add(String.format("  %s: %d live, %d pooled, %d/%d reused", name, stats.liveBlocks(), stats.pooledBlocks(), stats.reused(), stats.allocs()));
+            }
+        }
+    }
+}
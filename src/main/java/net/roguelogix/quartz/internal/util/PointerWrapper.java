@@ -1,8 +1,9 @@
 package net.roguelogix.quartz.internal.util;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.ObjectArraySet;
+import it.unimi.dsi.fastutil.longs.Long2IntAVLTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectAVLTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectSortedMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import net.roguelogix.quartz.internal.MagicNumbers;
 import org.joml.*;
 import org.lwjgl.system.MemoryUtil;
@@ -16,7 +17,7 @@ import static net.roguelogix.quartz.internal.QuartzDebug.DEBUG;
 @SuppressWarnings("DuplicatedCode")
 public record PointerWrapper(long pointer, long size) implements Comparable<PointerWrapper> {
     
-    private static final boolean JOML_UNSAFE_AVAILABLE;
+    static final boolean JOML_UNSAFE_AVAILABLE;
     
     static {
         boolean available = false;
@@ -44,7 +45,8 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         }
     }
     
-    private static final Long2ObjectMap<MemoryLeak> liveAllocations = new Long2ObjectOpenHashMap<>();
+    // sorted, so finding the allocation containing a pointer is a floor lookup
+    private static final Long2ObjectSortedMap<MemoryLeak> liveAllocations = new Long2ObjectAVLTreeMap<>();
     
     private static PointerWrapper trackPointer(PointerWrapper wrapper) {
         if (!DEBUG) {
@@ -63,7 +65,10 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         }
         synchronized (liveAllocations) {
             if (liveAllocations.remove(wrapper.pointer) == null) {
-                for (final var value : liveAllocations.values()) {
+                // allocations don't overlap, so the only one that can contain this is the closest one starting before it
+                final var before = liveAllocations.headMap(wrapper.pointer);
+                if (!before.isEmpty()) {
+                    final var value = before.get(before.lastLongKey());
                     if (value.allocated.contains(wrapper)) {
                         throw new IllegalStateException("Attempt to free sub pointer, source pointer originally allocated at cause", value);
                     }
@@ -75,7 +80,7 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
     }
     
     public static PointerWrapper alloc(long size) {
-        final long ptr = MemoryUtil.nmemAlloc(size);
+        final long ptr = NativeMemoryPool.alloc(size);
         return trackPointer(new PointerWrapper(ptr, size));
     }
     
@@ -83,10 +88,13 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         if (size == newSize) {
             return this;
         }
-        final var newPtr = MemoryUtil.nmemRealloc(this.pointer, newSize);
+        final var newPtr = NativeMemoryPool.realloc(this.pointer, size, newSize);
         final var newWrapped = new PointerWrapper(newPtr, newSize);
         if (pointer != newPtr) {
             untrackPointer(this);
+        } else {
+            // same block, the live entry is replaced below, but the old size's write location has to go
+            removeAccessibleLocation(this);
         }
         // retracks to realloc location
         trackPointer(newWrapped);
@@ -99,7 +107,7 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
             return;
         }
         untrackPointer(this);
-        MemoryUtil.nmemFree(pointer);
+        NativeMemoryPool.free(pointer, size);
     }
     
     public static void logLeakedMemory() {
@@ -112,14 +120,28 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         }
     }
     
-    private static final ObjectArraySet<PointerWrapper> validWriteLocations = new ObjectArraySet<>();
+    // start -> locations starting there, sorted so finding the location an access starts in is a floor lookup
+    private static final Long2ObjectAVLTreeMap<ObjectArrayList<PointerWrapper>> validWriteLocations = new Long2ObjectAVLTreeMap<>();
+    // size -> how many locations have it, the last key is the longest location there is right now
+    private static final Long2IntAVLTreeMap writeLocationSizes = new Long2IntAVLTreeMap();
+    // locations can nest, nothing starting further back than this can contain an address
+    private static long longestWriteLocation = 0;
     
     public static void addAccessibleLocation(PointerWrapper wrapper) {
         if (!DEBUG) {
             return;
         }
         synchronized (validWriteLocations) {
-            validWriteLocations.add(wrapper);
+            var locations = validWriteLocations.get(wrapper.pointer);
+            if (locations == null) {
+                locations = new ObjectArrayList<>(1);
+                validWriteLocations.put(wrapper.pointer, locations);
+            }
+            if (!locations.contains(wrapper)) {
+                locations.add(wrapper);
+                writeLocationSizes.addTo(wrapper.size, 1);
+                longestWriteLocation = writeLocationSizes.lastLongKey();
+            }
         }
     }
     
@@ -128,7 +150,21 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
             return;
         }
         synchronized (validWriteLocations) {
-            validWriteLocations.remove(wrapper);
+            final var locations = validWriteLocations.get(wrapper.pointer);
+            if (locations == null) {
+                return;
+            }
+            if (!locations.remove(wrapper)) {
+                return;
+            }
+            if (locations.isEmpty()) {
+                validWriteLocations.remove(wrapper.pointer);
+            }
+            // so one big mapping going away doesn't leave every lookup scanning back over its span
+            if (writeLocationSizes.addTo(wrapper.size, -1) == 1) {
+                writeLocationSizes.remove(wrapper.size);
+            }
+            longestWriteLocation = writeLocationSizes.isEmpty() ? 0 : writeLocationSizes.lastLongKey();
         }
     }
     
@@ -136,16 +172,31 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         if (!DEBUG) {
             return;
         }
-        for (final var value : validWriteLocations) {
-            // doesnt start in this range
-            if (value.pointer > ptr || value.pointer + value.size <= ptr) {
-                continue;
+        synchronized (validWriteLocations) {
+            boolean startFound = false;
+            // mappings and allocations don't overlap in practice, so this is normally only the first iteration
+            var candidates = validWriteLocations.headMap(ptr + 1);
+            while (!candidates.isEmpty()) {
+                final long start = candidates.lastLongKey();
+                if (start + longestWriteLocation <= ptr) {
+                    break;
+                }
+                for (final var value : candidates.get(start)) {
+                    // doesnt start in this range
+                    if (value.pointer + value.size <= ptr) {
+                        continue;
+                    }
+                    if (ptr + size <= value.pointer + value.size) {
+                        // starts in a known range, and doesnt attempt to access past the end, its valid
+                        return;
+                    }
+                    startFound = true;
+                }
+                candidates = candidates.headMap(start);
             }
-            if (value.pointer + value.size < ptr + size) {
+            if (startFound) {
                 throw new IllegalArgumentException("Attempt to write past end of native buffer");
             }
-            // starts in a known range, and doesnt attempt to access past the end, its valid
-            return;
         }
         throw new NullPointerException("Unable to find a valid write location for attempted write");
     }
@@ -223,6 +274,37 @@ public record PointerWrapper(long pointer, long size) implements Comparable<Poin
         copyTo(0, dst, 0, Math.min(size, dst.size));
     }
     
+    /**
+     * memcmp, but only equality
+     */
+    public static boolean contentEquals(PointerWrapper a, long aOffset, PointerWrapper b, long bOffset, long size) {
+        if (size == 0) {
+            return true;
+        }
+        a.checkRange(aOffset, size, 1);
+        b.checkRange(bOffset, size, 1);
+        final long aPtr = a.pointer + aOffset;
+        final long bPtr = b.pointer + bOffset;
+        long i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            if (MemoryUtil.memGetLong(aPtr + i) != MemoryUtil.memGetLong(bPtr + i)) {
+                return false;
+            }
+        }
+        if (i + Integer.BYTES <= size) {
+            if (MemoryUtil.memGetInt(aPtr + i) != MemoryUtil.memGetInt(bPtr + i)) {
+                return false;
+            }
+            i += Integer.BYTES;
+        }
+        for (; i < size; i++) {
+            if (MemoryUtil.memGetByte(aPtr + i) != MemoryUtil.memGetByte(bPtr + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     private void checkRange(long offset, long writeSize) {
         checkRange(offset, writeSize, writeSize);
     }
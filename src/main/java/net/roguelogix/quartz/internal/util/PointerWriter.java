@@ -0,0 +1,141 @@
+package net.roguelogix.quartz.internal.util;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.MagicNumbers;
+import org.joml.Matrix4fc;
+import org.joml.Vector3ic;
+import org.lwjgl.system.MemoryUtil;
+
+import static net.roguelogix.quartz.internal.QuartzDebug.DEBUG;
+
+/**
+ * Write cursor for filling one record in a PointerWrapper
+ * of checks the whole record once, puts after that are unchecked stores relative to the start of the record
+ * in debug mode every put is also checked against the record
+ * <p>
+ * Make one per record and keep it in a local, the fields are final so the JIT keeps the record base in a register
+ * and scalar replaces the writer, a shared mutable writer gets its fields reloaded after every store
+ */
+@NonnullDefault
+public final class PointerWriter {
+    
+    private final long record;
+    private final long recordSize;
+    
+    private PointerWriter(long record, long recordSize) {
+        this.record = record;
+        this.recordSize = recordSize;
+    }
+    
+    /**
+     * Starts a record, offset and size are in bytes into the pointer
+     */
+    public static PointerWriter of(PointerWrapper pointer, long offset, long size) {
+        if (pointer.pointer() == 0) {
+            throw new IllegalStateException("Attempt to use NULLPTR");
+        }
+        if (offset < 0 || size < 0 || offset + size > pointer.size()) {
+            throw new IllegalArgumentException("Record out of pointer bounds. offset: " + offset + ", size: " + size + ", pointer size: " + pointer.size());
+        }
+        final long record = pointer.pointer() + offset;
+        PointerWrapper.verifyCanAccessLocation(record, size);
+        return new PointerWriter(record, size);
+    }
+    
+    private void checkPut(long offset, long writeSize, long alignment) {
+        if (offset < 0 || offset + writeSize > recordSize) {
+            throw new IllegalArgumentException("Attempt to write outside of record");
+        }
+        if (((record + offset) % alignment) != 0) {
+            throw new IllegalArgumentException("Attempt to access unaligned address");
+        }
+    }
+    
+    public void putByte(long offset, byte val) {
+        if (DEBUG) {
+            checkPut(offset, 1, 1);
+        }
+        MemoryUtil.memPutByte(record + offset, val);
+    }
+    
+    public void putShort(long offset, short val) {
+        if (DEBUG) {
+            checkPut(offset, 2, 2);
+        }
+        MemoryUtil.memPutShort(record + offset, val);
+    }
+    
+    public void putInt(long offset, int val) {
+        if (DEBUG) {
+            checkPut(offset, 4, 4);
+        }
+        MemoryUtil.memPutInt(record + offset, val);
+    }
+    
+    public void putFloat(long offset, float val) {
+        if (DEBUG) {
+            checkPut(offset, 4, 4);
+        }
+        MemoryUtil.memPutFloat(record + offset, val);
+    }
+    
+    public void putShortIdx(long index, short val) {
+        putShort(index * MagicNumbers.SHORT_BYTE_SIZE, val);
+    }
+    
+    public void putIntIdx(long index, int val) {
+        putInt(index * MagicNumbers.INT_BYTE_SIZE, val);
+    }
+    
+    public void putFloatIdx(long index, float val) {
+        putFloat(index * MagicNumbers.FLOAT_BYTE_SIZE, val);
+    }
+    
+    public void putVector3i(long offset, Vector3ic vector) {
+        if (DEBUG) {
+            checkPut(offset, 12, 16);
+        }
+        final var dstPtr = record + offset;
+        MemoryUtil.memPutInt(dstPtr, vector.x());
+        MemoryUtil.memPutInt(dstPtr + 4, vector.y());
+        MemoryUtil.memPutInt(dstPtr + 8, vector.z());
+    }
+    
+    public void putMatrix4f(long offset, Matrix4fc matrix) {
+        if (DEBUG) {
+            checkPut(offset, 64, 16);
+        }
+        final var dstPtr = record + offset;
+        if (PointerWrapper.JOML_UNSAFE_AVAILABLE) {
+            matrix.getToAddress(dstPtr);
+        } else {
+            putMatrix3x4fUnchecked(dstPtr, matrix);
+            MemoryUtil.memPutFloat(dstPtr + 48, matrix.m30());
+            MemoryUtil.memPutFloat(dstPtr + 52, matrix.m31());
+            MemoryUtil.memPutFloat(dstPtr + 56, matrix.m32());
+            MemoryUtil.memPutFloat(dstPtr + 60, matrix.m33());
+        }
+    }
+    
+    public void putMatrix3x4f(long offset, Matrix4fc matrix) {
+        if (DEBUG) {
+            checkPut(offset, 48, 16);
+        }
+        putMatrix3x4fUnchecked(record + offset, matrix);
+    }
+    
+    private static void putMatrix3x4fUnchecked(long dstPtr, Matrix4fc matrix) {
+        MemoryUtil.memPutFloat(dstPtr, matrix.m00());
+        MemoryUtil.memPutFloat(dstPtr + 4, matrix.m01());
+        MemoryUtil.memPutFloat(dstPtr + 8, matrix.m02());
+        MemoryUtil.memPutFloat(dstPtr + 12, matrix.m03());
+        MemoryUtil.memPutFloat(dstPtr + 16, matrix.m10());
+        MemoryUtil.memPutFloat(dstPtr + 20, matrix.m11());
+        MemoryUtil.memPutFloat(dstPtr + 24, matrix.m12());
+        MemoryUtil.memPutFloat(dstPtr + 28, matrix.m13());
+        MemoryUtil.memPutFloat(dstPtr + 32, matrix.m20());
+        MemoryUtil.memPutFloat(dstPtr + 36, matrix.m21());
+        MemoryUtil.memPutFloat(dstPtr + 40, matrix.m22());
+        MemoryUtil.memPutFloat(dstPtr + 44, matrix.m23());
+    }
+}
@@ -0,0 +1,118 @@
+package net.roguelogix.quartz.internal.util;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+/**
+ * Offset/range bookkeeping for a buffer, knows nothing about what backs the range
+ * Blocks are referred to by integer handles, what a handle means is up to the implementation
+ * <p>
+ * NOT thread safe
+ */
+@NonnullDefault
+public interface RangeAllocator {
+    
+    int NULL_BLOCK = -1;
+    
+    /**
+     * @return size of the range being managed
+     */
+    int capacity();
+    
+    int offset(int block);
+    
+    /**
+     * @return size of the block, may be larger than the size requested
+     */
+    int size(int block);
+    
+    boolean isLive(int block);
+    
+    /**
+     * Allocates a block of at least the size specified, aligned to the specified power of two
+     *
+     * @return block handle, or NULL_BLOCK if the allocation doesn't fit in the current capacity
+     */
+    int alloc(int size, int alignment);
+    
+    /**
+     * Attempts to resize a block without moving it
+     *
+     * @return if the block was resized
+     */
+    boolean resize(int block, int newSize);
+    
+    /**
+     * Shrinks a block without freeing what's cut off, the tail becomes its own live block, to be freed whenever the caller can
+     * allocators that can't split a block into exactly two return NULL_BLOCK and leave the block alone
+     *
+     * @return tail block, or NULL_BLOCK if there is no tail
+     */
+    default int splitTail(int block, int newSize) {
+        return NULL_BLOCK;
+    }
+    
+    void free(int block);
+    
+    /**
+     * Adds free space to the end of the range
+     */
+    void grow(int newCapacity);
+    
+    /**
+     * @return capacity that guarantees an alloc of this size and alignment will succeed if nothing else changes
+     */
+    int requiredCapacity(int size, int alignment);
+    
+    /**
+     * @return if growing the range may allow this block to be resized in place
+     */
+    boolean isAtEnd(int block);
+    
+    /**
+     * @return bytes in free blocks, space lost to alignment padding or otherwise unusable isn't counted
+     */
+    int freeBytes();
+    
+    /**
+     * @return size of the largest free block, for fragmentation stats
+     */
+    int largestFreeBlock();
+    
+    /**
+     * @return offset of the free space at the end of the range, capacity if there isn't any (or it isn't known)
+     */
+    default int trailingFreeOffset() {
+        return capacity();
+    }
+    
+    /**
+     * Removes free space from the end of the range, only possible if everything past the new capacity is free
+     *
+     * @return if the range was shrunk
+     */
+    default boolean shrink(int newCapacity) {
+        return false;
+    }
+    
+    /**
+     * For compaction, walks live blocks from the end of the range backwards
+     * allocators that can't do this (cheaply) return NULL_BLOCK
+     *
+     * @return live block with the highest offset, or NULL_BLOCK
+     */
+    default int lastLive() {
+        return NULL_BLOCK;
+    }
+    
+    /**
+     * @return live block physically before this one, or NULL_BLOCK
+     */
+    default int previousLive(int block) {
+        return NULL_BLOCK;
+    }
+    
+    static int alignUp(int offset, int alignment) {
+        // powers of two, so round down without a divide
+        return (offset + (alignment - 1)) & (-alignment);
+    }
+}
@@ -0,0 +1,433 @@
+package net.roguelogix.quartz.internal.util;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.Arrays;
+
+/**
+ * Two level segregated fit range allocator, alloc and free are both O(1)
+ * General purpose, good for mixed sizes and lifetimes
+ * <p>
+ * Only does the offset bookkeeping, whatever (if anything) backs the range is up to the caller
+ * Blocks always tile the entire range, and free blocks are always merged with free neighbors
+ * Blocks are referred to by integer handles, handles are recycled after a block is freed/merged
+ */
+@NonnullDefault
+public class TLSFAllocator implements RangeAllocator {
+    
+    private static final int SL_INDEX_COUNT_LOG2 = 4;
+    private static final int SL_INDEX_COUNT = 1 << SL_INDEX_COUNT_LOG2;
+    // below this, the second level is linear with size, so the first level list is effectively exact
+    private static final int SMALL_BLOCK_SIZE = SL_INDEX_COUNT;
+    // sizes are positive ints, highest bit is bit 30
+    private static final int FL_INDEX_COUNT = 31 - SL_INDEX_COUNT_LOG2 + 1;
+    
+    private static final byte STATE_UNUSED = 0;
+    private static final byte STATE_FREE = 1;
+    private static final byte STATE_LIVE = 2;
+    
+    private int[] blockOffset = new int[64];
+    private int[] blockSize = new int[64];
+    private int[] prevPhysical = new int[64];
+    private int[] nextPhysical = new int[64];
+    private int[] prevFree = new int[64];
+    private int[] nextFree = new int[64];
+    private byte[] blockState = new byte[64];
+    private int nextUnusedHandle = 0;
+    // recycled handles, linked through nextFree
+    private int recycledHandles = NULL_BLOCK;
+    
+    private int flBitmap = 0;
+    private final int[] slBitmaps = new int[FL_INDEX_COUNT];
+    private final int[] freeLists = new int[FL_INDEX_COUNT * SL_INDEX_COUNT];
+    
+    private int capacity = 0;
+    private int freeBytes = 0;
+    private int lastBlock = NULL_BLOCK;
+    
+    public TLSFAllocator(int capacity) {
+        Arrays.fill(freeLists, NULL_BLOCK);
+        grow(capacity);
+    }
+    
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+    
+    @Override
+    public int offset(int block) {
+        return blockOffset[block];
+    }
+    
+    @Override
+    public int size(int block) {
+        return blockSize[block];
+    }
+    
+    @Override
+    public boolean isLive(int block) {
+        return block >= 0 && block < nextUnusedHandle && blockState[block] == STATE_LIVE;
+    }
+    
+    @Override
+    public int freeBytes() {
+        return freeBytes;
+    }
+    
+    @Override
+    public int largestFreeBlock() {
+        if (flBitmap == 0) {
+            return 0;
+        }
+        final int fl = 31 - Integer.numberOfLeadingZeros(flBitmap);
+        final int sl = 31 - Integer.numberOfLeadingZeros(slBitmaps[fl]);
+        // only the size class is known, so walk that one list
+        int largest = 0;
+        for (int block = freeLists[(fl << SL_INDEX_COUNT_LOG2) | sl]; block != NULL_BLOCK; block = nextFree[block]) {
+            largest = Math.max(largest, blockSize[block]);
+        }
+        return largest;
+    }
+    
+    @Override
+    public int trailingFreeOffset() {
+        if (lastBlock != NULL_BLOCK && blockState[lastBlock] == STATE_FREE) {
+            return blockOffset[lastBlock];
+        }
+        return capacity;
+    }
+    
+    @Override
+    public int requiredCapacity(int size, int alignment) {
+        return RangeAllocator.alignUp(trailingFreeOffset(), Math.max(alignment, 1)) + Math.max(size, 1);
+    }
+    
+    /**
+     * @return if only free space (if any) exists after this block, so growing the range can grow the block in place
+     */
+    @Override
+    public boolean isAtEnd(int block) {
+        final int next = nextPhysical[block];
+        return next == NULL_BLOCK || (blockState[next] == STATE_FREE && nextPhysical[next] == NULL_BLOCK);
+    }
+    
+    @Override
+    public int alloc(int size, int alignment) {
+        if (size < 1) {
+            size = 1;
+        }
+        if (alignment < 1) {
+            alignment = 1;
+        }
+        int block = freeLists[mappingInsert(size)];
+        if (block == NULL_BLOCK || !fits(block, size, alignment)) {
+            // worst case, the entire alignment is wasted, so search for a class where every block is guaranteed to fit it
+            final long searchSize = (long) size + alignment - 1;
+            block = searchSize < Integer.MAX_VALUE ? findSuitable(mappingSearch((int) searchSize)) : NULL_BLOCK;
+            if (block == NULL_BLOCK) {
+                // the good fit search rounds up, the trailing block may still fit exactly, which is what buffer growth relies on
+                if (lastBlock != NULL_BLOCK && blockState[lastBlock] == STATE_FREE && fits(lastBlock, size, alignment)) {
+                    block = lastBlock;
+                } else {
+                    return NULL_BLOCK;
+                }
+            }
+        }
+        removeFree(block);
+        
+        final int offset = blockOffset[block];
+        final int alignmentWaste = RangeAllocator.alignUp(offset, alignment) - offset;
+        if (alignmentWaste > 0) {
+            // previous physical block is never free, so this doesn't need to merge
+            final int alignedBlock = split(block, alignmentWaste);
+            insertFree(block);
+            block = alignedBlock;
+        }
+        if (blockSize[block] > size) {
+            // next physical block is never free either
+            insertFree(split(block, size));
+        }
+        blockState[block] = STATE_LIVE;
+        return block;
+    }
+    
+    /**
+     * Attempts to resize a block without moving it
+     * shrinking always succeeds, growing only succeeds if the next block is free and large enough
+     *
+     * @return if the block was resized
+     */
+    @Override
+    public boolean resize(int block, int newSize) {
+        if (!isLive(block)) {
+            throw new IllegalArgumentException("Cannot resize non-live block");
+        }
+        if (newSize < 1) {
+            newSize = 1;
+        }
+        final int currentSize = blockSize[block];
+        if (newSize == currentSize) {
+            return true;
+        }
+        if (newSize < currentSize) {
+            free(splitTail(block, newSize));
+            return true;
+        }
+        final int next = nextPhysical[block];
+        if (next == NULL_BLOCK || blockState[next] != STATE_FREE || currentSize + blockSize[next] < newSize) {
+            return false;
+        }
+        removeFree(next);
+        merge(block, next);
+        if (blockSize[block] > newSize) {
+            insertFree(split(block, newSize));
+        }
+        return true;
+    }
+    
+    @Override
+    public int splitTail(int block, int newSize) {
+        if (!isLive(block)) {
+            throw new IllegalArgumentException("Cannot split non-live block");
+        }
+        newSize = Math.max(newSize, 1);
+        if (newSize >= blockSize[block]) {
+            return NULL_BLOCK;
+        }
+        final int tail = split(block, newSize);
+        blockState[tail] = STATE_LIVE;
+        return tail;
+    }
+    
+    @Override
+    public void free(int block) {
+        if (!isLive(block)) {
+            throw new IllegalArgumentException("Cannot free non-live block");
+        }
+        blockState[block] = STATE_FREE;
+        final int prev = prevPhysical[block];
+        if (prev != NULL_BLOCK && blockState[prev] == STATE_FREE) {
+            removeFree(prev);
+            merge(prev, block);
+            block = prev;
+        }
+        final int next = nextPhysical[block];
+        if (next != NULL_BLOCK && blockState[next] == STATE_FREE) {
+            removeFree(next);
+            merge(block, next);
+        }
+        insertFree(block);
+    }
+    
+    @Override
+    public void grow(int newCapacity) {
+        if (newCapacity <= capacity) {
+            return;
+        }
+        final int addedSize = newCapacity - capacity;
+        if (lastBlock != NULL_BLOCK && blockState[lastBlock] == STATE_FREE) {
+            removeFree(lastBlock);
+            blockSize[lastBlock] += addedSize;
+            insertFree(lastBlock);
+        } else {
+            final int block = newHandle();
+            blockOffset[block] = capacity;
+            blockSize[block] = addedSize;
+            prevPhysical[block] = lastBlock;
+            nextPhysical[block] = NULL_BLOCK;
+            if (lastBlock != NULL_BLOCK) {
+                nextPhysical[lastBlock] = block;
+            }
+            lastBlock = block;
+            insertFree(block);
+        }
+        capacity = newCapacity;
+    }
+    
+    @Override
+    public boolean shrink(int newCapacity) {
+        if (newCapacity >= capacity) {
+            return newCapacity == capacity;
+        }
+        if (trailingFreeOffset() > newCapacity) {
+            return false;
+        }
+        // everything being removed is in the trailing free block
+        removeFree(lastBlock);
+        if (blockOffset[lastBlock] == newCapacity) {
+            final int removed = lastBlock;
+            lastBlock = prevPhysical[removed];
+            if (lastBlock != NULL_BLOCK) {
+                nextPhysical[lastBlock] = NULL_BLOCK;
+            }
+            recycleHandle(removed);
+        } else {
+            blockSize[lastBlock] -= capacity - newCapacity;
+            insertFree(lastBlock);
+        }
+        capacity = newCapacity;
+        return true;
+    }
+    
+    @Override
+    public int lastLive() {
+        if (lastBlock == NULL_BLOCK || blockState[lastBlock] == STATE_LIVE) {
+            return lastBlock;
+        }
+        return prevPhysical[lastBlock];
+    }
+    
+    @Override
+    public int previousLive(int block) {
+        final int prev = prevPhysical[block];
+        if (prev == NULL_BLOCK || blockState[prev] == STATE_LIVE) {
+            return prev;
+        }
+        // free blocks are always merged, so the one before a free block is live
+        return prevPhysical[prev];
+    }
+    
+    private boolean fits(int block, int size, int alignment) {
+        final int offset = blockOffset[block];
+        return (long) RangeAllocator.alignUp(offset, alignment) - offset + size <= blockSize[block];
+    }
+    
+    private static int mappingInsert(int size) {
+        if (size < SMALL_BLOCK_SIZE) {
+            return size;
+        }
+        final int highBit = 31 - Integer.numberOfLeadingZeros(size);
+        final int sl = (size >>> (highBit - SL_INDEX_COUNT_LOG2)) ^ SL_INDEX_COUNT;
+        final int fl = highBit - SL_INDEX_COUNT_LOG2 + 1;
+        return (fl << SL_INDEX_COUNT_LOG2) | sl;
+    }
+    
+    private static int mappingSearch(int size) {
+        if (size >= SMALL_BLOCK_SIZE) {
+            // round up to the next second level boundary, so any block in the list found will fit
+            final int highBit = 31 - Integer.numberOfLeadingZeros(size);
+            final long rounded = size + (1L << (highBit - SL_INDEX_COUNT_LOG2)) - 1;
+            size = (int) Math.min(rounded, Integer.MAX_VALUE);
+        }
+        return mappingInsert(size);
+    }
+    
+    private int findSuitable(int index) {
+        int fl = index >>> SL_INDEX_COUNT_LOG2;
+        final int sl = index & (SL_INDEX_COUNT - 1);
+        int slMap = slBitmaps[fl] & (~0 << sl);
+        if (slMap == 0) {
+            if (fl + 1 >= FL_INDEX_COUNT) {
+                return NULL_BLOCK;
+            }
+            final int flMap = flBitmap & (~0 << (fl + 1));
+            if (flMap == 0) {
+                return NULL_BLOCK;
+            }
+            fl = Integer.numberOfTrailingZeros(flMap);
+            slMap = slBitmaps[fl];
+        }
+        return freeLists[(fl << SL_INDEX_COUNT_LOG2) | Integer.numberOfTrailingZeros(slMap)];
+    }
+    
+    private void insertFree(int block) {
+        blockState[block] = STATE_FREE;
+        freeBytes += blockSize[block];
+        final int index = mappingInsert(blockSize[block]);
+        final int head = freeLists[index];
+        prevFree[block] = NULL_BLOCK;
+        nextFree[block] = head;
+        if (head != NULL_BLOCK) {
+            prevFree[head] = block;
+        }
+        freeLists[index] = block;
+        final int fl = index >>> SL_INDEX_COUNT_LOG2;
+        slBitmaps[fl] |= 1 << (index & (SL_INDEX_COUNT - 1));
+        flBitmap |= 1 << fl;
+    }
+    
+    private void removeFree(int block) {
+        freeBytes -= blockSize[block];
+        final int prev = prevFree[block];
+        final int next = nextFree[block];
+        if (next != NULL_BLOCK) {
+            prevFree[next] = prev;
+        }
+        if (prev != NULL_BLOCK) {
+            nextFree[prev] = next;
+            return;
+        }
+        final int index = mappingInsert(blockSize[block]);
+        freeLists[index] = next;
+        if (next == NULL_BLOCK) {
+            final int fl = index >>> SL_INDEX_COUNT_LOG2;
+            slBitmaps[fl] &= ~(1 << (index & (SL_INDEX_COUNT - 1)));
+            if (slBitmaps[fl] == 0) {
+                flBitmap &= ~(1 << fl);
+            }
+        }
+    }
+    
+    /**
+     * splits the block at the size given, block keeps the front half
+     *
+     * @return handle to the back half, state is left for the caller to set
+     */
+    private int split(int block, int size) {
+        final int remainder = newHandle();
+        blockOffset[remainder] = blockOffset[block] + size;
+        blockSize[remainder] = blockSize[block] - size;
+        blockSize[block] = size;
+        final int next = nextPhysical[block];
+        prevPhysical[remainder] = block;
+        nextPhysical[remainder] = next;
+        nextPhysical[block] = remainder;
+        if (next != NULL_BLOCK) {
+            prevPhysical[next] = remainder;
+        } else {
+            lastBlock = remainder;
+        }
+        return remainder;
+    }
+    
+    /**
+     * merges b into a, b must be the next physical block after a, b's handle is recycled
+     */
+    private void merge(int a, int b) {
+        blockSize[a] += blockSize[b];
+        final int next = nextPhysical[b];
+        nextPhysical[a] = next;
+        if (next != NULL_BLOCK) {
+            prevPhysical[next] = a;
+        } else {
+            lastBlock = a;
+        }
+        recycleHandle(b);
+    }
+    
+    private void recycleHandle(int handle) {
+        blockState[handle] = STATE_UNUSED;
+        nextFree[handle] = recycledHandles;
+        recycledHandles = handle;
+    }
+    
+    private int newHandle() {
+        if (recycledHandles != NULL_BLOCK) {
+            final int handle = recycledHandles;
+            recycledHandles = nextFree[handle];
+            return handle;
+        }
+        if (nextUnusedHandle == blockOffset.length) {
+            final int newLength = blockOffset.length * 2;
+            blockOffset = Arrays.copyOf(blockOffset, newLength);
+            blockSize = Arrays.copyOf(blockSize, newLength);
+            prevPhysical = Arrays.copyOf(prevPhysical, newLength);
+            nextPhysical = Arrays.copyOf(nextPhysical, newLength);
+            prevFree = Arrays.copyOf(prevFree, newLength);
+            nextFree = Arrays.copyOf(nextFree, newLength);
+            blockState = Arrays.copyOf(blockState, newLength);
+        }
+        return nextUnusedHandle++;
+    }
+}
@@ -31,11 +31,20 @@ uint packNormal(vec3 normal);
 
 int getLightChunkIndex(ivec3 blockPos);
 
+vec3 unpackOctahedralNormal(int packedNormal);
+
 // per vertex
-layout(location = POSITION_LOCATION) in vec3 position;
+#ifdef COMPACT_VERTICES
+// xyz: position, scaled by 2^(exponent - 15), w: exponent (4 bits), octahedral normal (6 bits each)
+layout(location = POSITION_LOCATION) in ivec4 packedPositionIn;
+layout(location = COLOR_LOCATION) in uint colorIn;
+layout(location = TEX_COORD_LOCATION) in vec2 texCoordIn;
+#else
+layout(location = POSITION_LOCATION) in vec3 positionIn;
 layout(location = COLOR_LOCATION) in uint colorIn;
 layout(location = TEX_COORD_LOCATION) in vec2 texCoordIn;
 layout(location = NORMAL_LOCATION) in vec3 normalIn;
+#endif
 
 // per instance
 layout(location = WORLD_POSITION_LOCATION) in ivec3 worldPosition;
@@ -62,12 +71,21 @@ flat out uint overlayOutput;
 flat out uint lightmapOutput;
 
 void main() {
+#ifdef COMPACT_VERTICES
+    int packedW = packedPositionIn.w & 0xFFFF;
+    vec3 position = vec3(packedPositionIn.xyz) * exp2(float((packedW >> 12) - COMPACT_VERTEX_EXPONENT_BIAS - 15));
+    vec3 vertexNormal = unpackOctahedralNormal(packedW);
+#else
+    vec3 position = positionIn;
+    vec3 vertexNormal = normalIn;
+#endif
+
     ivec3 worldTransform = worldPosition - playerBlock.xyz;
 
     // any transforms that touch W will be lost, potentailly do the division on that?
     // dynamic matrices are handled in a compute pre-step
     vec3 transformedModelPos = (modelMatrix * vec4(position, 1)).xyz;
-    vec3 normal = normalize(normalMatrix * normalIn);
+    vec3 normal = normalize(normalMatrix * vertexNormal);
     positionOutput = transformedModelPos + vec3(worldTransform);
     normalOutput = packNormal(normal);
     colorOutput = colorIn;
@@ -83,6 +101,15 @@ void main() {
     lightmapOutput = uint(getLightChunkIndex(actualWorldBlockPos)) | (1u << 30);
 }
 
+vec3 unpackOctahedralNormal(int packedNormal) {
+    vec2 octahedral = vec2((packedNormal >> 6) & 0x3F, packedNormal & 0x3F) / 31.0 - 1.0;
+    vec3 normal = vec3(octahedral, 1.0 - abs(octahedral.x) - abs(octahedral.y));
+    if (normal.z < 0) {
+        normal.xy = (1.0 - abs(normal.yx)) * vec2(normal.x >= 0 ? 1.0 : -1.0, normal.y >= 0 ? 1.0 : -1.0);
+    }
+    return normalize(normal);
+}
+
 vec4 unpackColorABGR(uint color) {
     uint a = (color >> 24) & 0xFFu;
     uint b = (color >> 16) & 0xFFu;
@@ -0,0 +1,239 @@
+package net.roguelogix.quartz.internal.util;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import static net.roguelogix.quartz.internal.util.RangeAllocator.NULL_BLOCK;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Randomized alloc/free/resize/grow/shrink runs against every allocator, checking invariants after each step
+ * a failure message includes the seed and step, so it can be replayed
+ */
+public class RangeAllocatorTest {
+    
+    private static final int SEEDS = 200;
+    private static final int STEPS = 2000;
+    
+    @Test
+    public void tlsf() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            fuzz(seed, TLSFAllocator::new, true, true);
+        }
+    }
+    
+    @Test
+    public void buddy() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            fuzz(seed, BuddyAllocator::new, true, false);
+        }
+    }
+    
+    @Test
+    public void linear() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            fuzz(seed, LinearAllocator::new, false, false);
+        }
+    }
+    
+    @Test
+    public void tlsfExactFit() {
+        // buffer growth relies on an exactly sized trailing block being usable
+        final var allocator = new TLSFAllocator(0);
+        final int a = allocator.alloc(100, 16);
+        assertEquals(NULL_BLOCK, a);
+        allocator.grow(allocator.requiredCapacity(100, 16));
+        final int b = allocator.alloc(100, 16);
+        assertNotEquals(NULL_BLOCK, b);
+        assertEquals(0, allocator.offset(b));
+        assertEquals(100, allocator.capacity());
+        
+        final int c = allocator.alloc(12, 64);
+        assertEquals(NULL_BLOCK, c);
+        allocator.grow(allocator.requiredCapacity(12, 64));
+        final int d = allocator.alloc(12, 64);
+        assertEquals(128, allocator.offset(d));
+        assertEquals(140, allocator.capacity());
+    }
+    
+    @Test
+    public void tlsfSplitTail() {
+        // a shrunk buffer allocation's tail is retired, so it must stay out of the free lists until it's freed
+        final var allocator = new TLSFAllocator(4096);
+        final int block = allocator.alloc(1024, 16);
+        final int freeBytes = allocator.freeBytes();
+        final int tail = allocator.splitTail(block, 256);
+        assertNotEquals(NULL_BLOCK, tail);
+        assertTrue(allocator.isLive(tail));
+        assertEquals(256, allocator.size(block));
+        assertEquals(allocator.offset(block) + 256, allocator.offset(tail));
+        assertEquals(freeBytes, allocator.freeBytes());
+        final int other = allocator.alloc(512, 16);
+        assertTrue(allocator.offset(other) >= allocator.offset(tail) + allocator.size(tail) || allocator.offset(other) + 512 <= allocator.offset(block), "alloc landed in the split off tail");
+        allocator.free(tail);
+        assertEquals(freeBytes - 512 + 768, allocator.freeBytes());
+        assertEquals(NULL_BLOCK, allocator.splitTail(block, 256));
+    }
+    
+    @Test
+    public void tlsfCompactionWalk() {
+        final var allocator = new TLSFAllocator(1 << 16);
+        final var blocks = new IntArrayList();
+        for (int i = 0; i < 32; i++) {
+            blocks.add(allocator.alloc(256, 16));
+        }
+        for (int i = 0; i < 32; i += 3) {
+            allocator.free(blocks.getInt(i));
+        }
+        int expected = 31;
+        for (int block = allocator.lastLive(); block != NULL_BLOCK; block = allocator.previousLive(block)) {
+            while (expected % 3 == 0) {
+                expected--;
+            }
+            assertEquals(blocks.getInt(expected), block);
+            expected--;
+        }
+        while (expected >= 0 && expected % 3 == 0) {
+            expected--;
+        }
+        assertEquals(-1, expected);
+    }
+    
+    private static void fuzz(int seed, IntFunction<RangeAllocator> constructor, boolean reusesFreedSpace, boolean walksLive) {
+        final var random = new Random(seed);
+        final var allocator = constructor.apply(random.nextInt(4) == 0 ? 0 : random.nextInt(1 << 16));
+        // handle -> requested size, alignments are tracked separately as resize doesn't take one
+        final var requested = new Int2IntOpenHashMap();
+        final var alignments = new Int2IntOpenHashMap();
+        final var live = new IntArrayList();
+        // free + live bytes, only changes when the capacity does
+        long usableBytes = allocator.freeBytes();
+        for (int step = 0; step < STEPS; step++) {
+            final String where = "seed " + seed + " step " + step;
+            final int op = random.nextInt(100);
+            if (op < 45 || live.isEmpty()) {
+                final int size = randomSize(random);
+                final int alignment = 1 << random.nextInt(9);
+                int block = allocator.alloc(size, alignment);
+                if (block == NULL_BLOCK) {
+                    final int required = allocator.requiredCapacity(size, alignment);
+                    assertTrue(required > allocator.capacity() || !reusesFreedSpace, where + " alloc failed with enough capacity");
+                    final int freeBytes = allocator.freeBytes();
+                    allocator.grow(required);
+                    usableBytes += allocator.freeBytes() - freeBytes;
+                    block = allocator.alloc(size, alignment);
+                    assertNotEquals(NULL_BLOCK, block, where + " alloc failed after growing to the required capacity");
+                }
+                assertFalse(requested.containsKey(block), where + " handle handed out twice");
+                requested.put(block, size);
+                alignments.put(block, alignment);
+                live.add(block);
+            } else if (op < 80) {
+                final int block = live.removeInt(random.nextInt(live.size()));
+                requested.remove(block);
+                alignments.remove(block);
+                allocator.free(block);
+                assertFalse(allocator.isLive(block), where + " block live after free");
+            } else if (op < 92) {
+                final int block = live.getInt(random.nextInt(live.size()));
+                final int offset = allocator.offset(block);
+                final int newSize = randomSize(random);
+                if (allocator.resize(block, newSize)) {
+                    assertEquals(offset, allocator.offset(block), where + " resize moved the block");
+                    requested.put(block, newSize);
+                } else {
+                    assertTrue(newSize > requested.get(block), where + " shrinking resize failed");
+                }
+            } else if (op < 96) {
+                final int freeBytes = allocator.freeBytes();
+                allocator.grow(allocator.capacity() + random.nextInt(1 << 12));
+                usableBytes += allocator.freeBytes() - freeBytes;
+            } else {
+                final int trailing = allocator.trailingFreeOffset();
+                final int capacity = allocator.capacity();
+                final int freeBytes = allocator.freeBytes();
+                final boolean shrunk = allocator.shrink(trailing);
+                usableBytes += allocator.freeBytes() - freeBytes;
+                if (shrunk) {
+                    assertEquals(trailing, allocator.capacity(), where + " shrink didn't apply");
+                } else {
+                    assertEquals(capacity, allocator.capacity(), where + " failed shrink changed capacity");
+                }
+            }
+            final long liveBytes = validate(where, allocator, requested, alignments, live, walksLive);
+            if (reusesFreedSpace) {
+                assertEquals(usableBytes, allocator.freeBytes() + liveBytes, where + " bytes went missing");
+            }
+        }
+        
+        while (!live.isEmpty()) {
+            allocator.free(live.popInt());
+        }
+        if (reusesFreedSpace) {
+            assertEquals(usableBytes, allocator.freeBytes(), "seed " + seed + " free bytes after freeing everything");
+        } else {
+            assertEquals(allocator.capacity(), allocator.freeBytes(), "seed " + seed + " space not reclaimed after freeing everything");
+        }
+        if (walksLive) {
+            assertEquals(NULL_BLOCK, allocator.lastLive(), "seed " + seed + " live block after freeing everything");
+        }
+    }
+    
+    private static int randomSize(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> 1 + random.nextInt(16);
+            case 1, 2 -> 1 + random.nextInt(512);
+            default -> 1 + random.nextInt(16384);
+        };
+    }
+    
+    private static long validate(String where, RangeAllocator allocator, Int2IntOpenHashMap requested, Int2IntOpenHashMap alignments, IntArrayList live, boolean walksLive) {
+        final int capacity = allocator.capacity();
+        final long[] ranges = new long[live.size()];
+        long liveBytes = 0;
+        int lastOffset = -1;
+        int lastBlock = NULL_BLOCK;
+        for (int i = 0; i < live.size(); i++) {
+            final int block = live.getInt(i);
+            assertTrue(allocator.isLive(block), where + " live block not live");
+            final int offset = allocator.offset(block);
+            final int size = allocator.size(block);
+            assertTrue(offset >= 0 && (long) offset + size <= capacity, where + " block outside of capacity");
+            assertTrue(size >= requested.get(block), where + " block smaller than requested");
+            assertEquals(0, offset & (alignments.get(block) - 1), where + " block misaligned");
+            ranges[i] = ((long) offset << 32) | i;
+            liveBytes += size;
+            if (offset > lastOffset) {
+                lastOffset = offset;
+                lastBlock = block;
+            }
+        }
+        Arrays.sort(ranges);
+        for (int i = 1; i < ranges.length; i++) {
+            final int prev = live.getInt((int) ranges[i - 1]);
+            final int current = live.getInt((int) ranges[i]);
+            assertTrue(allocator.offset(prev) + allocator.size(prev) <= allocator.offset(current), where + " blocks overlap");
+        }
+        assertTrue(allocator.freeBytes() >= 0 && allocator.freeBytes() + liveBytes <= capacity, where + " free bytes out of range");
+        assertTrue(allocator.largestFreeBlock() <= allocator.freeBytes(), where + " largest free block bigger than free bytes");
+        assertTrue(allocator.trailingFreeOffset() >= lastOffset, where + " trailing free space overlaps a live block");
+        if (walksLive) {
+            assertEquals(lastBlock, allocator.lastLive(), where + " wrong last live block");
+            int walked = 0;
+            int previousOffset = Integer.MAX_VALUE;
+            for (int block = allocator.lastLive(); block != NULL_BLOCK; block = allocator.previousLive(block)) {
+                assertTrue(requested.containsKey(block), where + " walk found a non-live block");
+                assertTrue(allocator.offset(block) < previousOffset, where + " walk went forward");
+                previousOffset = allocator.offset(block);
+                walked++;
+            }
+            assertEquals(live.size(), walked, where + " walk missed live blocks");
+        }
+        return liveBytes;
+    }
+}